@@ -0,0 +1,120 @@
+package com.echolima.offers;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Offers, stores and descriptions shared by the benchmarks.
+ */
+final class BenchmarkOffers {
+    private static final String[] CURRENCIES = {"GBP", "EUR", "USD", "SEK", "JPY"};
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final int WORDS_PER_DESCRIPTION = 5;
+
+    enum Storage {
+        SKIP_LIST,
+        COMPACT,
+        COPY_ON_WRITE,
+        /** The store the application was wired with before it was made concurrent, made safe with a lock. */
+        SYNCHRONIZED_HASH_MAP
+    }
+
+    private BenchmarkOffers() {}
+
+    static OfferStore store(Storage storage) {
+        switch (storage) {
+            case COMPACT:
+                return new CompactOfferStore();
+            case COPY_ON_WRITE:
+                return new CopyOnWriteOfferStore();
+            case SYNCHRONIZED_HASH_MAP:
+                return new SynchronizedHashMapOfferStore();
+            default:
+                return new SkipListOfferStore(new ConcurrentSkipListMap<>());
+        }
+    }
+
+    static Offer offer(Random random) {
+        return Offer.builder()
+                .withId(new UUID(random.nextLong(), random.nextLong()).toString())
+                .withCurrency(Currency.getInstance(CURRENCIES[random.nextInt(CURRENCIES.length)]))
+                .withPriceInPence(BigDecimal.valueOf(100 + random.nextInt(100_000)))
+                .withExpiryDate(LocalDate.now().plusDays(1 + random.nextInt(365)))
+                .withDescription(description(random))
+                .build();
+    }
+
+    static String description(Random random) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_DESCRIPTION; i++) {
+            description.append(i == 0 ? "" : " ").append(word(random.nextInt(VOCABULARY_SIZE)));
+        }
+        return description.toString();
+    }
+
+    static String word(int index) {
+        return "word" + index;
+    }
+
+    private static final class SynchronizedHashMapOfferStore implements OfferStore {
+        private final Map<String, Offer> idToOfferMap = new HashMap<>();
+
+        @Override
+        public synchronized Offer get(String id) {
+            return idToOfferMap.get(id);
+        }
+
+        @Override
+        public synchronized void put(Offer offer) {
+            idToOfferMap.put(offer.getId(), offer);
+        }
+
+        @Override
+        public synchronized Offer computeIfPresent(String id, UnaryOperator<Offer> function) {
+            return idToOfferMap.computeIfPresent(id, (key, offer) -> function.apply(offer));
+        }
+
+        @Override
+        public synchronized Offer remove(String id) {
+            return idToOfferMap.remove(id);
+        }
+
+        @Override
+        public synchronized Iterator<Offer> iterator() {
+            return copy().iterator();
+        }
+
+        @Override
+        public synchronized Iterator<Offer> iteratorAfter(String id) {
+            List<Offer> offers = copy();
+            return offers.stream().filter(offer -> offer.getId().compareTo(id) > 0).iterator();
+        }
+
+        @Override
+        public synchronized boolean hasAfter(String id) {
+            return idToOfferMap.keySet().stream().anyMatch(key -> key.compareTo(id) > 0);
+        }
+
+        @Override
+        public synchronized void clear() {
+            idToOfferMap.clear();
+        }
+
+        private List<Offer> copy() {
+            List<Offer> offers = idToOfferMap.values().stream().collect(Collectors.toList());
+            Collections.sort(offers, (first, second) -> first.getId().compareTo(second.getId()));
+            return offers;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.echolima.offers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ending a promotion: cancelling every offer expiring in the next expiringWithinDays days out of 100,000, one id at a
+ * time as DELETE /offers/{id} used to, or in one pass by their ids or by the expiry window. Each iteration cancels
+ * them once, in a repository filled again before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BulkCancelBenchmark {
+    private static final int SIZE = 100_000;
+
+    @Param({"5", "60"})
+    private int expiringWithinDays;
+
+    @Param({"SKIP_LIST", "COMPACT"})
+    private String storage;
+
+    private OffersRepository offersRepository;
+    private List<String> ids;
+    private OfferQuery query;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        offersRepository = new OffersRepository(
+                new TimeService(), BenchmarkOffers.store(BenchmarkOffers.Storage.valueOf(storage)));
+        LocalDate expiringBefore = LocalDate.now().plusDays(expiringWithinDays + 1);
+        query = OfferQuery.builder().withExpiringBefore(expiringBefore).build();
+        Random random = new Random(42);
+        List<Offer> offers = new ArrayList<>(SIZE);
+        ids = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            Offer offer = BenchmarkOffers.offer(random);
+            offers.add(offer);
+            if (offer.getExpiryDate().isBefore(expiringBefore)) {
+                ids.add(offer.getId());
+            }
+        }
+        offersRepository.createOffers(offers);
+    }
+
+    @Benchmark
+    public int cancelEach() {
+        int cancelled = 0;
+        for (String id : ids) {
+            if (offersRepository.getOffer(id).isPresent()) {
+                offersRepository.cancel(id);
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    @Benchmark
+    public int cancelOffersByIds() {
+        return offersRepository.cancelOffers(ids);
+    }
+
+    @Benchmark
+    public int cancelOffersByQuery() {
+        return offersRepository.cancelOffers(query);
+    }
+}
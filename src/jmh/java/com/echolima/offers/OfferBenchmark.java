@@ -0,0 +1,80 @@
+package com.echolima.offers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The model operations on the repository's hot paths, and request validation in the controller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OfferBenchmark {
+    private Offer offer;
+    private Offer equalOffer;
+    private CreateOfferRequest validRequest;
+    private CreateOfferRequest invalidCurrencyRequest;
+
+    @Setup
+    public void setup() {
+        offer = BenchmarkOffers.offer(new Random(42));
+        equalOffer = Offer.builder(offer).build();
+        validRequest = new CreateOfferRequest(
+                offer.getCurrency().getCurrencyCode(),
+                offer.getPriceInPence(),
+                offer.getExpiryDate(),
+                offer.getDescription());
+        invalidCurrencyRequest = new CreateOfferRequest(
+                "NotACurrency", offer.getPriceInPence(), offer.getExpiryDate(), offer.getDescription());
+    }
+
+    @Benchmark
+    public Offer build() {
+        return Offer.builder()
+                .withId(offer.getId())
+                .withCurrency(offer.getCurrency())
+                .withPriceInPence(offer.getPriceInPence())
+                .withExpiryDate(offer.getExpiryDate())
+                .withDescription(offer.getDescription())
+                .build();
+    }
+
+    @Benchmark
+    public Offer copy() {
+        return Offer.builder(offer).withExpired(true).build();
+    }
+
+    @Benchmark
+    public boolean equals() {
+        return offer.equals(equalOffer);
+    }
+
+    @Benchmark
+    public int hashCodeOfOffer() {
+        return offer.hashCode();
+    }
+
+    @Benchmark
+    public boolean validateValidRequest() {
+        return OffersController.isInvalid(validRequest);
+    }
+
+    @Benchmark
+    public boolean validateInvalidCurrency() {
+        return OffersController.isInvalid(invalidCurrencyRequest);
+    }
+}
@@ -0,0 +1,65 @@
+package com.echolima.offers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id generation and creating offers with those ids from every core at once, as the controller does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(Threads.MAX)
+public class OfferIdGeneratorBenchmark {
+    @Param({"TIME_ORDERED", "RANDOM"})
+    private String generation;
+
+    private OfferIdGenerator offerIdGenerator;
+    private OffersRepository offersRepository;
+    private Offer template;
+
+    @Setup
+    public void setup() {
+        offerIdGenerator = "RANDOM".equals(generation)
+                ? () -> UUID.randomUUID().toString()
+                : new TimeOrderedOfferIdGenerator(0);
+        offersRepository = new OffersRepository(new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        template = Offer.builder()
+                .withId("template")
+                .withCurrency(Currency.getInstance("GBP"))
+                .withPriceInPence(BigDecimal.valueOf(1000))
+                .withExpiryDate(LocalDate.now().plusDays(30))
+                .withDescription("word1 word2 word3")
+                .build();
+    }
+
+    @Benchmark
+    public String nextId() {
+        return offerIdGenerator.nextId();
+    }
+
+    @Benchmark
+    public void createOffer() {
+        offersRepository.createOffer(Offer.builder(template).withId(offerIdGenerator.nextId()).build());
+    }
+}
@@ -0,0 +1,68 @@
+package com.echolima.offers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description search over an index of a million offers, each described by five words out of a vocabulary of five
+ * thousand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OfferSearchBenchmark {
+    @Param({"1000000"})
+    private int size;
+
+    private OfferSearchIndex searchIndex;
+
+    @Setup
+    public void setup() {
+        searchIndex = new OfferSearchIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            searchIndex.add(BenchmarkOffers.offer(random));
+        }
+    }
+
+    @Benchmark
+    public List<String> singleTerm() {
+        return searchIndex.search(randomWord(), 20);
+    }
+
+    @Benchmark
+    public List<String> twoTerms() {
+        return searchIndex.search(randomWord() + " " + randomWord(), 20);
+    }
+
+    @Benchmark
+    public List<String> prefix() {
+        return searchIndex.search("word" + ThreadLocalRandom.current().nextInt(10, 100) + "*", 20);
+    }
+
+    @Benchmark
+    public void add() {
+        searchIndex.add(BenchmarkOffers.offer(ThreadLocalRandom.current()));
+    }
+
+    private static String randomWord() {
+        return BenchmarkOffers.word(ThreadLocalRandom.current().nextInt(5000));
+    }
+}
@@ -0,0 +1,61 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the heap each store retains for a given number of offers, as the difference in used heap after a full
+ * collection before and after filling it. Usage: {@code OffersFootprintReport <report file> <offers>...}; ten million
+ * offers in the skip list store needs a heap of several gigabytes.
+ */
+public final class OffersFootprintReport {
+    private OffersFootprintReport() {}
+
+    public static void main(String[] args) throws IOException {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            int size = Integer.parseInt(args[i]);
+            for (BenchmarkOffers.Storage storage : BenchmarkOffers.Storage.values()) {
+                results.add(measure(storage, size));
+            }
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(args[0]), results);
+    }
+
+    private static Map<String, Object> measure(BenchmarkOffers.Storage storage, int size) {
+        long before = usedHeap();
+        OfferStore offerStore = BenchmarkOffers.store(storage);
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            offerStore.put(BenchmarkOffers.offer(random));
+        }
+        long retained = usedHeap() - before;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("storage", storage);
+        result.put("offers", size);
+        result.put("retainedBytes", retained);
+        result.put("bytesPerOffer", retained / size);
+        if (offerStore instanceof CompactOfferStore) {
+            result.put("reportedBytes", ((CompactOfferStore) offerStore).footprintBytes());
+        }
+        System.out.println(result);
+        return result;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,254 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an offers service with a mix of creates, reads, listings and cancels at a fixed rate, and writes the
+ * throughput and latency distribution of each operation to a report, to compare storage modes and configurations
+ * before a release. Usage: {@code OffersLoadTest <report file> <base url | local> <requests/s> <seconds> [mix]
+ * [application args...]}, where the mix is weights such as {@code get=70,list=10,create=15,cancel=5}, the default.
+ * With {@code local}, the application is started in this JVM with the application args, for instance
+ * {@code --offers.storage=COMPACT}, and stopped at the end; a base url measures a service started on its own instead,
+ * without the load generator competing for its CPU.
+ *
+ * <p>The load is open loop: requests are sent on a schedule whether or not earlier ones have been answered, and each
+ * latency is measured from when its request was due rather than when it went out. A stalled service therefore shows
+ * up as the long waits its clients would see, instead of quietly slowing the generator down, which is the coordinated
+ * omission a closed loop of connections suffers from.
+ */
+public final class OffersLoadTest {
+    private static final int SEED_OFFERS = 1000;
+    private static final int LISTING_LIMIT = 100;
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final String DEFAULT_MIX = "get=70,list=10,create=15,cancel=5";
+    private static final String USAGE = "Usage: OffersLoadTest <report file> <base url | local> <requests/s> <seconds>"
+            + " [mix, default " + DEFAULT_MIX + "] [application args...]";
+
+    enum Operation {
+        CREATE,
+        GET,
+        LIST,
+        CANCEL
+    }
+
+    private OffersLoadTest() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        File report = new File(args[0]);
+        int rate = Integer.parseInt(args[2]);
+        long seconds = Long.parseLong(args[3]);
+        String mix = args.length > 4 ? args[4] : DEFAULT_MIX;
+        List<String> applicationArgs = args.length > 5
+                ? Arrays.asList(args).subList(5, args.length)
+                : Collections.emptyList();
+
+        ConfigurableApplicationContext context = null;
+        String baseUrl = args[1];
+        if ("local".equals(baseUrl)) {
+            List<String> localArgs = new ArrayList<>(applicationArgs);
+            localArgs.add("--server.port=0");
+            context = new SpringApplicationBuilder(OffersApplication.class).run(localArgs.toArray(new String[0]));
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("target", args[1]);
+            result.put("applicationArgs", applicationArgs);
+            result.put("mix", mix);
+            result.put("intendedRate", rate);
+            result.put("seconds", seconds);
+            result.putAll(run(WebClient.create(baseUrl), rate, seconds, weights(mix)));
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, result);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    private static Map<String, Object> run(WebClient client, int rate, long seconds, Map<Operation, Integer> weights) {
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        Queue<String> activeIds = new ConcurrentLinkedQueue<>();
+        Flux.range(0, SEED_OFFERS)
+                .flatMap(i -> createOffer(client), 64)
+                .doOnNext(response -> {
+                    String id = id(response);
+                    ids.add(id);
+                    activeIds.add(id);
+                })
+                .blockLast();
+
+        Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+        for (Operation operation : weights.keySet()) {
+            latencies.put(operation, new ConcurrentHistogram(HIGHEST_LATENCY_NANOS, 3));
+            errors.put(operation, new AtomicLong());
+        }
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        AtomicInteger inFlight = new AtomicInteger();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (long due = start; due < deadline; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick(weights, totalWeight);
+            long dueNanos = due;
+            inFlight.incrementAndGet();
+            request(client, operation, ids, activeIds)
+                    .map(response -> response.statusCode().isError())
+                    .onErrorReturn(true)
+                    .subscribe(failed -> {
+                        latencies.get(operation)
+                                .recordValue(Math.min(System.nanoTime() - dueNanos, HIGHEST_LATENCY_NANOS));
+                        if (failed) {
+                            errors.get(operation).incrementAndGet();
+                        }
+                        inFlight.decrementAndGet();
+                    });
+        }
+        long drainDeadline = System.nanoTime() + DRAIN_NANOS;
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        Histogram all = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+        long allErrors = 0;
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Operation operation : latencies.keySet()) {
+            all.add(latencies.get(operation));
+            allErrors += errors.get(operation).get();
+            operations.put(operation.name().toLowerCase(Locale.ROOT),
+                    summary(operation.name(), latencies.get(operation), errors.get(operation).get(), elapsedSeconds));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("unanswered", inFlight.get());
+        result.put("all", summary("ALL", all, allErrors, elapsedSeconds));
+        result.put("operations", operations);
+        return result;
+    }
+
+    private static Mono<ClientResponse> request(
+            WebClient client, Operation operation, List<String> ids, Queue<String> activeIds) {
+        switch (operation) {
+            case CREATE:
+                return createOffer(client).doOnNext(response -> {
+                    if (!response.statusCode().isError()) {
+                        String id = id(response);
+                        ids.add(id);
+                        activeIds.add(id);
+                    }
+                });
+            case LIST:
+                return read(client.get().uri("/offers?limit={limit}", LISTING_LIMIT));
+            case CANCEL:
+                String cancelId = activeIds.poll();
+                return read(client.delete().uri("/offers/{id}", cancelId != null ? cancelId : randomId(ids)));
+            default:
+                return read(client.get().uri("/offers/{id}", randomId(ids)));
+        }
+    }
+
+    private static Mono<ClientResponse> read(WebClient.RequestHeadersSpec<?> request) {
+        return request.exchange().flatMap(response -> response.bodyToMono(byte[].class).thenReturn(response));
+    }
+
+    private static Mono<ClientResponse> createOffer(WebClient client) {
+        return client.post().uri("/offers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(new CreateOfferRequest(
+                        "GBP", BigDecimal.valueOf(1000), LocalDate.now().plusDays(30), "word1 word2 word3"))
+                .exchange()
+                .flatMap(response -> response.bodyToMono(Void.class).thenReturn(response));
+    }
+
+    private static String id(ClientResponse response) {
+        String path = response.headers().asHttpHeaders().getLocation().getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String randomId(List<String> ids) {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    private static Operation pick(Map<Operation, Integer> weights, int totalWeight) {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("weights changed while picking");
+    }
+
+    private static Map<Operation, Integer> weights(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String weight : mix.split(",")) {
+            String[] operationAndWeight = weight.split("=");
+            int value = Integer.parseInt(operationAndWeight[1].trim());
+            if (value > 0) {
+                weights.put(Operation.valueOf(operationAndWeight[0].trim().toUpperCase(Locale.ROOT)), value);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("the mix needs at least one operation with a positive weight");
+        }
+        return weights;
+    }
+
+    private static Map<String, Object> summary(String name, Histogram latencies, long errors, double seconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", latencies.getTotalCount());
+        summary.put("errors", errors);
+        summary.put("requestsPerSecond", latencies.getTotalCount() / seconds);
+        summary.put("p50Millis", latencies.getValueAtPercentile(50) / 1e6);
+        summary.put("p90Millis", latencies.getValueAtPercentile(90) / 1e6);
+        summary.put("p99Millis", latencies.getValueAtPercentile(99) / 1e6);
+        summary.put("p999Millis", latencies.getValueAtPercentile(99.9) / 1e6);
+        summary.put("maxMillis", latencies.getMaxValue() / 1e6);
+        System.out.printf("%-6s %9d requests %7d errors %9.0f/s  p50 %8.2f  p99 %8.2f  p99.9 %8.2f  max %8.2f ms%n",
+                name, latencies.getTotalCount(), errors, latencies.getTotalCount() / seconds,
+                latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+                latencies.getValueAtPercentile(99.9) / 1e6, latencies.getMaxValue() / 1e6);
+        return summary;
+    }
+}
@@ -0,0 +1,115 @@
+package com.echolima.offers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository operations against each store. Run with -t 1, -t 2 and so on up to the number of cores to see how each
+ * store scales under contention; the mixed group runs three readers against one writer, and the scanning group one
+ * full listing against three writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffersRepositoryBenchmark {
+    @Param({"1000", "100000"})
+    private int size;
+
+    @Param({"SKIP_LIST", "COMPACT", "COPY_ON_WRITE", "SYNCHRONIZED_HASH_MAP"})
+    private String storage;
+
+    private OffersRepository offersRepository;
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        offersRepository = new OffersRepository(new TimeService(), BenchmarkOffers.store(BenchmarkOffers.Storage.valueOf(storage)));
+        Random random = new Random(42);
+        ids = new String[size];
+        for (int i = 0; i < size; i++) {
+            Offer offer = BenchmarkOffers.offer(random);
+            offersRepository.createOffer(offer);
+            ids[i] = offer.getId();
+        }
+    }
+
+    @Benchmark
+    public Optional<Offer> getOffer() {
+        return offersRepository.getOffer(randomId());
+    }
+
+    @Benchmark
+    public void createOffer() {
+        offersRepository.createOffer(BenchmarkOffers.offer(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    public void cancel() {
+        offersRepository.cancel(randomId());
+    }
+
+    @Benchmark
+    public Optional<OfferPage> getOffersPage() {
+        return offersRepository.getOffers(randomId(), 100);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void getOffers(Blackhole blackhole) {
+        offersRepository.iterateOffers().forEachRemaining(blackhole::consume);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Optional<Offer> mixedGetOffer() {
+        return offersRepository.getOffer(randomId());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedCreateOffer() {
+        offersRepository.createOffer(BenchmarkOffers.offer(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    @Group("scanning")
+    @GroupThreads(1)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void scanningGetOffers(Blackhole blackhole) {
+        offersRepository.iterateOffers().forEachRemaining(blackhole::consume);
+    }
+
+    @Benchmark
+    @Group("scanning")
+    @GroupThreads(3)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean scanningCancel() {
+        return offersRepository.cancel(randomId());
+    }
+
+    private String randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+}
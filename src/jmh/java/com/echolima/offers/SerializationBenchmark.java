@@ -0,0 +1,108 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson reading and writing of the API payloads as JSON and as Smile, with object mappers configured the way Spring
+ * Boot configures the application's. Setup prints the size of each payload in the format, to compare with the times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final TypeReference<List<Offer>> OFFER_LIST = new TypeReference<List<Offer>>() {};
+
+    @Param({"JSON", "SMILE"})
+    private String format;
+
+    private ObjectMapper objectMapper;
+    private Offer offer;
+    private byte[] offerBytes;
+    private byte[] createOfferRequestBytes;
+    private List<Offer> listing;
+    private byte[] listingBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        objectMapper = OfferFormat.valueOf(format).isBinary()
+                ? Jackson2ObjectMapperBuilder.smile().build()
+                : Jackson2ObjectMapperBuilder.json().build();
+        Random random = new Random(42);
+        offer = BenchmarkOffers.offer(random);
+        offerBytes = objectMapper.writeValueAsBytes(offer);
+        createOfferRequestBytes = objectMapper.writeValueAsBytes(new CreateOfferRequest(
+                offer.getCurrency().getCurrencyCode(),
+                offer.getPriceInPence(),
+                offer.getExpiryDate(),
+                offer.getDescription()));
+        listing = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            listing.add(BenchmarkOffers.offer(random));
+        }
+        listingBytes = objectMapper.writeValueAsBytes(listing);
+        System.out.printf("%n%s: offer %d bytes, create request %d bytes, listing of hundred offers %d bytes%n",
+                format, offerBytes.length, createOfferRequestBytes.length, listingBytes.length);
+    }
+
+    @Benchmark
+    public byte[] writeOffer() throws IOException {
+        return objectMapper.writeValueAsBytes(offer);
+    }
+
+    @Benchmark
+    public Offer readOffer() throws IOException {
+        return objectMapper.readValue(offerBytes, Offer.class);
+    }
+
+    @Benchmark
+    public CreateOfferRequest readCreateOfferRequest() throws IOException {
+        return objectMapper.readValue(createOfferRequestBytes, CreateOfferRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writeListingOfHundredOffers() throws IOException {
+        return objectMapper.writeValueAsBytes(listing);
+    }
+
+    @Benchmark
+    public List<Offer> readListingOfHundredOffers() throws IOException {
+        return objectMapper.readValue(listingBytes, OFFER_LIST);
+    }
+
+    @Benchmark
+    public byte[] streamListingOfHundredOffers() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            generator.writeStartArray();
+            for (Offer listedOffer : listing) {
+                generator.writeObject(listedOffer);
+            }
+            generator.writeEndArray();
+        }
+        return output.toByteArray();
+    }
+}
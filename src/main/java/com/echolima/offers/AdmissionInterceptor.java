@@ -0,0 +1,248 @@
+package com.echolima.offers;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Turns requests away quickly when the service is overloaded, so point reads and writes keep their latency while
+ * listings pile up. Each client has a token bucket that bulk requests (listings, search, batches and bulk cancels)
+ * take more tokens from, and a client that runs out gets a 429 with how long until it has enough.
+ * Point and bulk requests have their own limits on how many run at once, and a request over its limit gets a 503. The
+ * bulk limit halves while point requests take longer on average than the target latency, and grows back one at a time
+ * while they do not.
+ *
+ * <p>Clients are told apart by remote address, or by the client id header when one is configured and the request
+ * has it. Requests from a trusted proxy count against the address it forwarded them for, the last one in
+ * X-Forwarded-For that is not itself a trusted proxy, so clients behind a gateway do not share one bucket.
+ *
+ * <p>Requests a node makes to another on behalf of one already admitted are marked local and not counted again, but
+ * only when they carry the nodes' shared secret, so clients cannot skip admission by marking their own requests.
+ */
+public class AdmissionInterceptor implements HandlerInterceptor {
+    public enum Lane {
+        POINT,
+        BULK
+    }
+
+    public enum Rejection {
+        RATE_LIMITED,
+        OVERLOADED
+    }
+
+    private static final String ADMITTED = AdmissionInterceptor.class.getName() + ".admitted";
+    private static final String STARTED = AdmissionInterceptor.class.getName() + ".started";
+    private static final long DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int LATENCY_SMOOTHING = 16;
+    private static final long MAX_CLIENTS = 100_000;
+    private static final String FORWARDED_FOR = "X-Forwarded-For";
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    private final OffersMetrics metrics;
+    private final double clientRate;
+    private final double clientBurst;
+    private final double bulkCost;
+    private final int maxPointRequests;
+    private final int maxBulkRequests;
+    private final long pointLatencyTargetNanos;
+    private final String clientIdHeader;
+    private final Set<String> trustedProxies;
+    private final byte[] nodeSecret;
+    private final Cache<String, TokenBucket> clientBuckets = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CLIENTS)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+    private final AtomicInteger pointRequests = new AtomicInteger();
+    private final AtomicInteger bulkRequests = new AtomicInteger();
+    private final AtomicInteger bulkLimit;
+    private final AtomicLong pointLatencyNanos = new AtomicLong();
+    private volatile long lastPointNanos;
+    private volatile long lastDecreaseNanos;
+
+    public AdmissionInterceptor(
+            OffersMetrics metrics,
+            double clientRate,
+            double clientBurst,
+            double bulkCost,
+            int maxPointRequests,
+            int maxBulkRequests,
+            long pointLatencyTargetMillis,
+            String clientIdHeader,
+            Collection<String> trustedProxies,
+            String nodeSecret) {
+        checkArgument(clientRate > 0, "clientRate must be positive");
+        checkArgument(bulkCost >= 1 && bulkCost <= clientBurst, "bulkCost must be between 1 and clientBurst");
+        checkArgument(maxPointRequests > 0, "maxPointRequests must be positive");
+        checkArgument(maxBulkRequests > 0, "maxBulkRequests must be positive");
+        checkArgument(pointLatencyTargetMillis > 0, "pointLatencyTargetMillis must be positive");
+        checkArgument(trustedProxies != null, "trustedProxies cannot be null");
+        this.metrics = metrics;
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.bulkCost = bulkCost;
+        this.maxPointRequests = maxPointRequests;
+        this.maxBulkRequests = maxBulkRequests;
+        this.pointLatencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(pointLatencyTargetMillis);
+        this.bulkLimit = new AtomicInteger(maxBulkRequests);
+        this.clientIdHeader = Strings.emptyToNull(clientIdHeader);
+        this.trustedProxies = ImmutableSet.copyOf(trustedProxies);
+        this.nodeSecret = Strings.isNullOrEmpty(nodeSecret) ? null : nodeSecret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Streamed listings come back through here once written, and were admitted the first time.
+        if (request.getDispatcherType() == DispatcherType.ASYNC
+                || (Boolean.parseBoolean(request.getParameter(OffersPartitioning.LOCAL)) && isFromNode(request))) {
+            return true;
+        }
+        Lane lane = laneOf(request);
+        long now = System.nanoTime();
+        TokenBucket bucket = clientBuckets.asMap()
+                .computeIfAbsent(clientOf(request), client -> new TokenBucket(clientBurst, now));
+        long waitNanos = bucket.take(lane == Lane.BULK ? bulkCost : 1, clientRate, clientBurst, now);
+        if (waitNanos > 0) {
+            return reject(response, lane, Rejection.RATE_LIMITED, waitNanos);
+        }
+        AtomicInteger inFlight = lane == Lane.BULK ? bulkRequests : pointRequests;
+        int limit = lane == Lane.BULK ? bulkLimit.get() : maxPointRequests;
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return reject(response, lane, Rejection.OVERLOADED, TimeUnit.SECONDS.toNanos(1));
+        }
+        request.setAttribute(ADMITTED, lane);
+        request.setAttribute(STARTED, now);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(
+            HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Lane lane = (Lane) request.getAttribute(ADMITTED);
+        if (lane == null) {
+            return;
+        }
+        request.removeAttribute(ADMITTED);
+        long now = System.nanoTime();
+        if (lane == Lane.BULK) {
+            bulkRequests.decrementAndGet();
+            if (!isPointLatencyOverTarget(now)) {
+                bulkLimit.updateAndGet(limit -> Math.min(maxBulkRequests, limit + 1));
+            }
+        } else {
+            pointRequests.decrementAndGet();
+            long latency = now - (Long) request.getAttribute(STARTED);
+            pointLatencyNanos.accumulateAndGet(
+                    latency, (average, sample) -> average + (sample - average) / LATENCY_SMOOTHING);
+            lastPointNanos = now;
+            if (isPointLatencyOverTarget(now) && now - lastDecreaseNanos > DECREASE_INTERVAL_NANOS) {
+                lastDecreaseNanos = now;
+                bulkLimit.updateAndGet(limit -> Math.max(1, limit / 2));
+            }
+        }
+    }
+
+    public int getBulkLimit() {
+        return bulkLimit.get();
+    }
+
+    /**
+     * The smoothed latency of recent point requests.
+     */
+    public double getPointLatencySeconds() {
+        return pointLatencyNanos.get() / 1e9;
+    }
+
+    /**
+     * Point latency is taken to be back on target once there have been no point requests for a while, so an idle
+     * lane cannot hold the bulk limit down.
+     */
+    private boolean isPointLatencyOverTarget(long now) {
+        return pointLatencyNanos.get() > pointLatencyTargetNanos && now - lastPointNanos < IDLE_NANOS;
+    }
+
+    private boolean reject(HttpServletResponse response, Lane lane, Rejection rejection, long retryAfterNanos) {
+        metrics.admissionRejected(lane, rejection);
+        response.setStatus(rejection == Rejection.RATE_LIMITED
+                ? HttpStatus.TOO_MANY_REQUESTS.value()
+                : HttpStatus.SERVICE_UNAVAILABLE.value());
+        long retryAfterSeconds = (long) Math.ceil(retryAfterNanos / 1e9);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, retryAfterSeconds)));
+        return false;
+    }
+
+    private boolean isFromNode(HttpServletRequest request) {
+        String secret = request.getHeader(OffersPartitioning.NODE_SECRET);
+        return nodeSecret != null
+                && secret != null
+                && MessageDigest.isEqual(nodeSecret, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String clientOf(HttpServletRequest request) {
+        String clientId = clientIdHeader == null ? null : request.getHeader(clientIdHeader);
+        if (!Strings.isNullOrEmpty(clientId)) {
+            return clientId;
+        }
+        String address = request.getRemoteAddr();
+        String forwardedFor = request.getHeader(FORWARDED_FOR);
+        if (forwardedFor != null && trustedProxies.contains(address)) {
+            List<String> hops = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(forwardedFor);
+            for (int hop = hops.size() - 1; hop >= 0 && trustedProxies.contains(address); hop--) {
+                address = hops.get(hop);
+            }
+        }
+        return address;
+    }
+
+    private Lane laneOf(HttpServletRequest request) {
+        String path = urlPathHelper.getLookupPathForRequest(request);
+        boolean bulk = "GET".equals(request.getMethod())
+                ? path.equals("/offers") || path.equals("/offers/") || path.equals("/offers/search")
+                : path.equals("/offers/batch") || path.equals("/offers/cancellations");
+        return bulk ? Lane.BULK : Lane.POINT;
+    }
+
+    private static final class TokenBucket {
+        private double tokens;
+        private long refilledNanos;
+
+        private TokenBucket(double tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.refilledNanos = nowNanos;
+        }
+
+        /**
+         * Takes the tokens and returns zero if there are enough, and otherwise how long until there will be.
+         */
+        private synchronized long take(double cost, double rate, double burst, long nowNanos) {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledNanos) * rate / 1e9);
+            refilledNanos = Math.max(refilledNanos, nowNanos);
+            if (tokens >= cost) {
+                tokens -= cost;
+                return 0;
+            }
+            return (long) Math.ceil((cost - tokens) / rate * 1e9);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.echolima.offers;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Which offers to cancel at once: either those with the given ids, or those matching every filter given.
+ */
+public class CancelOffersRequest {
+    private List<String> ids;
+    private String iso4217CurrencyCode;
+    private String descriptionContaining;
+    private LocalDate expiringFrom;
+    private LocalDate expiringBefore;
+
+    public CancelOffersRequest() {
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    public String getIso4217CurrencyCode() {
+        return iso4217CurrencyCode;
+    }
+
+    public void setIso4217CurrencyCode(String iso4217CurrencyCode) {
+        this.iso4217CurrencyCode = iso4217CurrencyCode;
+    }
+
+    public String getDescriptionContaining() {
+        return descriptionContaining;
+    }
+
+    public void setDescriptionContaining(String descriptionContaining) {
+        this.descriptionContaining = descriptionContaining;
+    }
+
+    public LocalDate getExpiringFrom() {
+        return expiringFrom;
+    }
+
+    public void setExpiringFrom(LocalDate expiringFrom) {
+        this.expiringFrom = expiringFrom;
+    }
+
+    public LocalDate getExpiringBefore() {
+        return expiringBefore;
+    }
+
+    public void setExpiringBefore(LocalDate expiringBefore) {
+        this.expiringBefore = expiringBefore;
+    }
+}
@@ -0,0 +1,285 @@
+package com.echolima.offers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Offers kept in a file instead of the heap, for those that are no longer active and rarely read. Offers are appended
+ * in their {@link OfferBinaryCodec} form, framed by their length and a CRC32, and read back through memory-mapped
+ * regions of the file, so a read is a copy out of the page cache. Only each id's position stays on the heap.
+ *
+ * <p>Removals are appended too, so the file is reopened rather than truncated on start, and each id's position is
+ * rebuilt by scanning its records up to the end marker that follows the last, or the first torn or corrupt one. Space
+ * is not reclaimed until the store is cleared.
+ */
+public class ColdOfferStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ColdOfferStore.class);
+
+    private static final int REGION_SIZE = 1 << 26;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int END = 0;
+    private static final int PADDING = -1;
+    private static final byte STORED = 1;
+    private static final byte REMOVED = 2;
+
+    private final int regionSize;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Long> idToPosition = new ConcurrentHashMap<>();
+    private long end;
+
+    public ColdOfferStore(Path path) throws IOException {
+        this(path, REGION_SIZE);
+    }
+
+    @VisibleForTesting
+    ColdOfferStore(Path path, int regionSize) throws IOException {
+        checkArgument(regionSize > 0, "regionSize must be positive");
+        this.regionSize = regionSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        scan();
+    }
+
+    public Offer get(String id) {
+        Long position = idToPosition.get(id);
+        return position == null ? null : read(position);
+    }
+
+    public boolean contains(String id) {
+        return idToPosition.containsKey(id);
+    }
+
+    /**
+     * Appends the offers, replacing any stored with the same ids, and forces them to disk.
+     */
+    public synchronized void putAll(Collection<Offer> offers) {
+        if (offers.isEmpty()) {
+            return;
+        }
+        int firstRegion = regionOf(end);
+        for (Offer offer : offers) {
+            byte[] record = encode(STORED, output -> OfferBinaryCodec.write(output, offer));
+            checkArgument(HEADER_SIZE + record.length <= regionSize - Integer.BYTES,
+                    "offer %s is too large for cold storage", offer.getId());
+            idToPosition.put(offer.getId(), append(record));
+        }
+        markEnd();
+        force(firstRegion);
+    }
+
+    /**
+     * Takes the offer out, appending a record of its removal so it stays out when the file is reopened.
+     */
+    public synchronized Offer remove(String id) {
+        Long position = idToPosition.remove(id);
+        if (position == null) {
+            return null;
+        }
+        int firstRegion = regionOf(end);
+        append(encode(REMOVED, output -> output.writeUTF(id)));
+        markEnd();
+        force(firstRegion);
+        return read(position);
+    }
+
+    /**
+     * Removes every offer whose id is not among the ids.
+     */
+    public synchronized void retainAll(Set<String> ids) {
+        List<String> removedIds = idToPosition.keySet().stream()
+                .filter(id -> !ids.contains(id))
+                .collect(Collectors.toList());
+        removedIds.forEach(this::remove);
+    }
+
+    /**
+     * Iterates over the stored offers in no particular order, reading each from the file as it goes.
+     */
+    public Iterator<Offer> iterator() {
+        return Iterators.transform(idToPosition.values().iterator(), this::read);
+    }
+
+    public int size() {
+        return idToPosition.size();
+    }
+
+    /**
+     * Bytes of the file written so far, including those of offers since replaced or removed.
+     */
+    public synchronized long sizeBytes() {
+        return end;
+    }
+
+    public synchronized void clear() {
+        idToPosition.clear();
+        end = 0;
+        markEnd();
+        force(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Offer read(long position) {
+        ByteBuffer region = regions.get(regionOf(position)).duplicate();
+        region.position(offsetOf(position));
+        byte[] record = new byte[region.getInt()];
+        region.getInt();
+        region.get(record);
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+            input.readByte();
+            return OfferBinaryCodec.read(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rebuilds each id's position from the records already in the file, a later record for an id replacing an
+     * earlier one, and leaves the end after the last record it could read.
+     */
+    private void scan() throws IOException {
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        while (end < size) {
+            if (offsetOf(end) + Integer.BYTES > regionSize) {
+                end += regionSize - offsetOf(end);
+                continue;
+            }
+            ByteBuffer region = region(regionOf(end)).duplicate();
+            region.position(offsetOf(end));
+            int length = region.getInt();
+            if (length == PADDING) {
+                end += regionSize - offsetOf(end);
+                continue;
+            }
+            if (length == END) {
+                break;
+            }
+            if (length < 0 || Integer.BYTES + length > region.remaining()) {
+                LOG.warn("Ignoring torn cold store record at {}", end);
+                break;
+            }
+            int checksum = region.getInt();
+            byte[] record = new byte[length];
+            region.get(record);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Ignoring corrupt cold store record at {}", end);
+                break;
+            }
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+            if (input.readByte() == STORED) {
+                idToPosition.put(OfferBinaryCodec.read(input).getId(), end);
+            } else {
+                idToPosition.remove(input.readUTF());
+            }
+            end += HEADER_SIZE + length;
+        }
+        markEnd();
+        if (end > 0) {
+            LOG.info("Reopened cold store with {} offers", idToPosition.size());
+        }
+    }
+
+    /**
+     * Writes the record at the end and returns its position. A record never spans two regions, so one that does not
+     * fit in what is left of a region is preceded by padding to the next.
+     */
+    private long append(byte[] record) {
+        if (offsetOf(end) + HEADER_SIZE + record.length + Integer.BYTES > regionSize) {
+            if (offsetOf(end) + Integer.BYTES <= regionSize) {
+                region(regionOf(end)).putInt(offsetOf(end), PADDING);
+            }
+            end += regionSize - offsetOf(end);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer region = region(regionOf(end)).duplicate();
+        region.position(offsetOf(end));
+        region.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        long position = end;
+        end += HEADER_SIZE + record.length;
+        return position;
+    }
+
+    /**
+     * Writes the end marker after the last record, so a scan stops there rather than reading records left from
+     * before the store was cleared. Records leave room for the marker in their region.
+     */
+    private void markEnd() {
+        region(regionOf(end)).putInt(offsetOf(end), END);
+    }
+
+    private void force(int firstRegion) {
+        for (int index = firstRegion; index <= regionOf(end); index++) {
+            regions.get(index).force();
+        }
+    }
+
+    private MappedByteBuffer region(int index) {
+        while (regions.size() <= index) {
+            try {
+                long start = (long) regions.size() * regionSize;
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return regions.get(index);
+    }
+
+    private int regionOf(long position) {
+        return (int) (position / regionSize);
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % regionSize);
+    }
+
+    private static byte[] encode(byte type, RecordWriter recordWriter) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(type);
+            recordWriter.write(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+}
@@ -0,0 +1,449 @@
+package com.echolima.offers;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps offers in primitive columns indexed by slot, and only builds {@link Offer} objects when they are read: ids as
+ * two longs, prices as an unscaled long and a scale, expiry dates as epoch days, currencies as an index into a table
+ * of the currencies seen so far and both flags in one byte. Descriptions are UTF-8 bytes in a shared arena of large
+ * chunks. Ids are found through an open addressing hash table of slots, so an offer costs around fifty bytes plus its
+ * description, against several hundred as objects in a map.
+ *
+ * <p>Offers are iterated in the order they were first stored, which each slot records as a sequence number. Ids must be
+ * UUIDs in their canonical form, and prices must fit in a long once unscaled. Removed offers keep their slot until a
+ * quarter of the slots are removed, when the live offers are moved down over them in order and their descriptions
+ * copied to a new arena, so removing offers frees their memory. Iterators find their place again by sequence after
+ * that. An offer's place is lost once it is removed, so a cursor naming an offer no longer here cannot be resumed
+ * from. Readers share a read lock and writers take the write lock.
+ */
+public class CompactOfferStore implements OfferStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ARENA_CHUNK_SIZE = 1 << 24;
+    private static final byte CANCELLED = 1;
+    private static final byte EXPIRED = 2;
+    private static final byte REMOVED = 4;
+    private static final int TOMBSTONE = -1;
+    private static final int MIN_REMOVED_TO_COMPACT = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] idHighs = new long[INITIAL_CAPACITY];
+    private long[] idLows = new long[INITIAL_CAPACITY];
+    private long[] unscaledPrices = new long[INITIAL_CAPACITY];
+    private byte[] priceScales = new byte[INITIAL_CAPACITY];
+    private int[] expiryEpochDays = new int[INITIAL_CAPACITY];
+    private short[] currencyIndexes = new short[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private long[] descriptionReferences = new long[INITIAL_CAPACITY];
+    private int[] descriptionLengths = new int[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private int size;
+    private int removed;
+    private long lastSequence;
+    private int compactions;
+
+    private int[] slotTable = new int[INITIAL_CAPACITY * 2];
+
+    private final List<byte[]> arena = new ArrayList<>();
+    private int arenaPosition = ARENA_CHUNK_SIZE;
+
+    private final List<Currency> currencies = new ArrayList<>();
+    private final Map<Currency, Short> currencyToIndex = new HashMap<>();
+
+    @Override
+    public Offer get(String id) {
+        UUID uuid = parseUuid(id);
+        if (uuid == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(uuid);
+            return slot < 0 ? null : materialise(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(Offer offer) {
+        UUID uuid = parseUuid(offer.getId());
+        checkArgument(uuid != null, "compact storage needs canonical UUID ids but got %s", offer.getId());
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(uuid);
+            if (slot < 0) {
+                slot = allocate(uuid);
+            }
+            write(slot, offer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Offer computeIfPresent(String id, UnaryOperator<Offer> function) {
+        UUID uuid = parseUuid(id);
+        if (uuid == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(uuid);
+            if (slot < 0) {
+                return null;
+            }
+            Offer offer = materialise(slot);
+            Offer computed = function.apply(offer);
+            if (computed != offer) {
+                write(slot, computed);
+            }
+            return computed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Offer remove(String id) {
+        UUID uuid = parseUuid(id);
+        if (uuid == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            int position = positionOf(uuid);
+            if (position < 0) {
+                return null;
+            }
+            int slot = slotTable[position] - 1;
+            slotTable[position] = TOMBSTONE;
+            flags[slot] |= REMOVED;
+            Offer offer = materialise(slot);
+            removed++;
+            if (removed >= MIN_REMOVED_TO_COMPACT && removed * 4 >= size) {
+                compact();
+            }
+            return offer;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Offer> iterator() {
+        return iteratorAfterSequence(0);
+    }
+
+    /**
+     * Returns null for an offer not stored here, since there is no telling where it was.
+     */
+    @Override
+    public Iterator<Offer> iteratorAfter(String id) {
+        UUID uuid = parseUuid(id);
+        if (uuid == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(uuid);
+            return slot < 0 ? null : iteratorAfterSequence(sequences[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean hasAfter(String id) {
+        UUID uuid = parseUuid(id);
+        if (uuid == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(uuid);
+            return slot >= 0 && nextLiveSlot(slot + 1) < size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(slotTable, 0);
+            size = 0;
+            removed = 0;
+            compactions++;
+            arena.clear();
+            arenaPosition = ARENA_CHUNK_SIZE;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Bytes held by the columns, the hash table and the description arena.
+     */
+    public long footprintBytes() {
+        lock.readLock().lock();
+        try {
+            long perSlot = 8 + 8 + 8 + 1 + 4 + 2 + 1 + 8 + 4 + 8;
+            return perSlot * idHighs.length + 4L * slotTable.length + (long) ARENA_CHUNK_SIZE * arena.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterates from the first offer stored after the sequence, keeping its slot until the store is compacted or
+     * cleared, and then searching for the first slot after the last sequence it returned.
+     */
+    private Iterator<Offer> iteratorAfterSequence(long firstSequence) {
+        return new AbstractIterator<Offer>() {
+            private long returnedSequence = firstSequence;
+            private int slot;
+            private int slotCompactions = -1;
+
+            @Override
+            protected Offer computeNext() {
+                lock.readLock().lock();
+                try {
+                    if (slotCompactions != compactions) {
+                        slot = firstSlotAfter(returnedSequence);
+                        slotCompactions = compactions;
+                    }
+                    slot = nextLiveSlot(slot);
+                    if (slot >= size) {
+                        return endOfData();
+                    }
+                    returnedSequence = sequences[slot];
+                    return materialise(slot++);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Slots hold ascending sequences, since offers are only ever added at the end and compacting keeps their order.
+     */
+    private int firstSlotAfter(long sequence) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequences[middle] <= sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int slotOf(UUID uuid) {
+        int position = positionOf(uuid);
+        return position < 0 ? -1 : slotTable[position] - 1;
+    }
+
+    /**
+     * Finds the id's position in the hash table, probing past the tombstones removed ids leave behind.
+     */
+    private int positionOf(UUID uuid) {
+        int mask = slotTable.length - 1;
+        for (int position = hash(uuid) & mask; slotTable[position] != 0; position = (position + 1) & mask) {
+            int slot = slotTable[position] - 1;
+            if (slot >= 0
+                    && idHighs[slot] == uuid.getMostSignificantBits()
+                    && idLows[slot] == uuid.getLeastSignificantBits()) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private int nextLiveSlot(int slot) {
+        while (slot < size && (flags[slot] & REMOVED) != 0) {
+            slot++;
+        }
+        return slot;
+    }
+
+    private int allocate(UUID uuid) {
+        if (size == idHighs.length) {
+            resize(size * 2);
+        }
+        int slot = size++;
+        idHighs[slot] = uuid.getMostSignificantBits();
+        idLows[slot] = uuid.getLeastSignificantBits();
+        descriptionLengths[slot] = 0;
+        flags[slot] = 0;
+        sequences[slot] = ++lastSequence;
+        if (size * 2 > slotTable.length) {
+            slotTable = new int[slotTable.length * 2];
+            for (int existingSlot = 0; existingSlot < size; existingSlot++) {
+                if ((flags[existingSlot] & REMOVED) == 0) {
+                    insertIntoTable(existingSlot);
+                }
+            }
+        } else {
+            insertIntoTable(slot);
+        }
+        return slot;
+    }
+
+    private void insertIntoTable(int slot) {
+        int mask = slotTable.length - 1;
+        int position = hash(idHighs[slot], idLows[slot]) & mask;
+        while (slotTable[position] > 0) {
+            position = (position + 1) & mask;
+        }
+        slotTable[position] = slot + 1;
+    }
+
+    /**
+     * Moves the live offers down over the removed ones, keeping their order, copies their descriptions to a new arena
+     * and shrinks the columns and the hash table to fit.
+     */
+    private void compact() {
+        List<byte[]> oldArena = new ArrayList<>(arena);
+        arena.clear();
+        arenaPosition = ARENA_CHUNK_SIZE;
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if ((flags[slot] & REMOVED) != 0) {
+                continue;
+            }
+            idHighs[live] = idHighs[slot];
+            idLows[live] = idLows[slot];
+            unscaledPrices[live] = unscaledPrices[slot];
+            priceScales[live] = priceScales[slot];
+            expiryEpochDays[live] = expiryEpochDays[slot];
+            currencyIndexes[live] = currencyIndexes[slot];
+            flags[live] = flags[slot];
+            sequences[live] = sequences[slot];
+            long reference = descriptionReferences[slot];
+            storeDescription(
+                    live, oldArena.get((int) (reference >>> 32)), (int) reference, descriptionLengths[slot]);
+            live++;
+        }
+        size = live;
+        removed = 0;
+        compactions++;
+        int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(live, 1)) * 2);
+        if (capacity < idHighs.length) {
+            resize(capacity);
+        }
+        slotTable = new int[idHighs.length * 2];
+        for (int slot = 0; slot < size; slot++) {
+            insertIntoTable(slot);
+        }
+    }
+
+    private void resize(int capacity) {
+        idHighs = Arrays.copyOf(idHighs, capacity);
+        idLows = Arrays.copyOf(idLows, capacity);
+        unscaledPrices = Arrays.copyOf(unscaledPrices, capacity);
+        priceScales = Arrays.copyOf(priceScales, capacity);
+        expiryEpochDays = Arrays.copyOf(expiryEpochDays, capacity);
+        currencyIndexes = Arrays.copyOf(currencyIndexes, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        descriptionReferences = Arrays.copyOf(descriptionReferences, capacity);
+        descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+    }
+
+    private void write(int slot, Offer offer) {
+        BigDecimal price = offer.getPriceInPence();
+        checkArgument(price.scale() == (byte) price.scale() && price.unscaledValue().bitLength() < Long.SIZE,
+                "priceInPence is too precise for compact storage");
+        unscaledPrices[slot] = price.unscaledValue().longValueExact();
+        priceScales[slot] = (byte) price.scale();
+        expiryEpochDays[slot] = Math.toIntExact(offer.getExpiryDate().toEpochDay());
+        currencyIndexes[slot] = currencyIndex(offer.getCurrency());
+        flags[slot] = (byte) ((offer.isCancelled() ? CANCELLED : 0) | (offer.isExpired() ? EXPIRED : 0));
+        if (descriptionLengths[slot] == 0 || !offer.getDescription().equals(description(slot))) {
+            byte[] description = offer.getDescription().getBytes(StandardCharsets.UTF_8);
+            storeDescription(slot, description, 0, description.length);
+        }
+    }
+
+    private Offer materialise(int slot) {
+        return new Offer(
+                new UUID(idHighs[slot], idLows[slot]).toString(),
+                currencies.get(currencyIndexes[slot]),
+                BigDecimal.valueOf(unscaledPrices[slot], priceScales[slot]),
+                LocalDate.ofEpochDay(expiryEpochDays[slot]),
+                description(slot),
+                (flags[slot] & CANCELLED) != 0,
+                (flags[slot] & EXPIRED) != 0);
+    }
+
+    private short currencyIndex(Currency currency) {
+        Short index = currencyToIndex.get(currency);
+        if (index == null) {
+            index = (short) currencies.size();
+            currencies.add(currency);
+            currencyToIndex.put(currency, index);
+        }
+        return index;
+    }
+
+    private void storeDescription(int slot, byte[] source, int offset, int length) {
+        if (arenaPosition + length > ARENA_CHUNK_SIZE) {
+            arena.add(new byte[Math.max(ARENA_CHUNK_SIZE, length)]);
+            arenaPosition = 0;
+        }
+        System.arraycopy(source, offset, arena.get(arena.size() - 1), arenaPosition, length);
+        descriptionReferences[slot] = ((long) (arena.size() - 1) << 32) | arenaPosition;
+        descriptionLengths[slot] = length;
+        arenaPosition += length;
+    }
+
+    private String description(int slot) {
+        long reference = descriptionReferences[slot];
+        return new String(arena.get((int) (reference >>> 32)), (int) reference, descriptionLengths[slot],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns null for anything but a canonical UUID, which cannot be stored here, so can only be missing.
+     */
+    private static UUID parseUuid(String id) {
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int hash(UUID uuid) {
+        return hash(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private static int hash(long high, long low) {
+        long hash = (high ^ (low * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,50 @@
+package com.echolima.offers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Maps ids to nodes by placing each node at many points on a ring of 64-bit hashes and giving an id to the first node
+ * at or after its own hash. Adding a node only moves the ids that now land on its points, around one in n of them,
+ * and the many points per node keep the share of each node even. Immutable, so a change of nodes is a new ring.
+ */
+public final class ConsistentHashRing {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> nodes;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> nodes, int pointsPerNode) {
+        checkArgument(nodes != null && !nodes.isEmpty(), "nodes cannot be null or empty");
+        checkArgument(pointsPerNode > 0, "pointsPerNode must be positive");
+        this.nodes = ImmutableList.copyOf(nodes);
+        for (String node : this.nodes) {
+            for (int point = 0; point < pointsPerNode; point++) {
+                ring.put(hash(node + "#" + point), node);
+            }
+        }
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public String nodeFor(String id) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(id));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
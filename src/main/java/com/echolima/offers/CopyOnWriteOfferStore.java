@@ -0,0 +1,277 @@
+package com.echolima.offers;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps offers in an immutable balanced tree ordered by id, keyed on {@link OfferKey}s, and publishes a new root on
+ * every write, copying only the path down to the changed node and sharing the rest with the previous tree. Readers
+ * never lock or wait: a snapshot is just the root as it was, and sees the store exactly as it was then, however long
+ * it is read for. Writers take turns, and each write allocates one node per level of the tree, around twenty at a
+ * million offers.
+ */
+public class CopyOnWriteOfferStore implements OfferStore {
+    private final Object writeLock = new Object();
+    private volatile Node root;
+
+    @Override
+    public Offer get(String id) {
+        return get(root, OfferKey.of(id));
+    }
+
+    @Override
+    public void put(Offer offer) {
+        OfferKey key = OfferKey.of(offer.getId());
+        synchronized (writeLock) {
+            root = put(root, key, offer);
+        }
+    }
+
+    /**
+     * Calls the function once, since writers do not race.
+     */
+    @Override
+    public Offer computeIfPresent(String id, UnaryOperator<Offer> function) {
+        OfferKey key = OfferKey.of(id);
+        synchronized (writeLock) {
+            Offer offer = get(root, key);
+            if (offer == null) {
+                return null;
+            }
+            Offer computed = function.apply(offer);
+            if (computed != offer) {
+                root = put(root, key, computed);
+            }
+            return computed;
+        }
+    }
+
+    @Override
+    public Offer remove(String id) {
+        OfferKey key = OfferKey.of(id);
+        synchronized (writeLock) {
+            Offer offer = get(root, key);
+            if (offer != null) {
+                root = remove(root, key);
+            }
+            return offer;
+        }
+    }
+
+    @Override
+    public Iterator<Offer> iterator() {
+        return new NodeIterator(root, null);
+    }
+
+    @Override
+    public Iterator<Offer> iteratorAfter(String id) {
+        return new NodeIterator(root, OfferKey.of(id));
+    }
+
+    @Override
+    public boolean hasAfter(String id) {
+        return hasAfter(root, OfferKey.of(id));
+    }
+
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            root = null;
+        }
+    }
+
+    @Override
+    public OfferStore snapshot() {
+        return new Snapshot(root);
+    }
+
+    private static Offer get(Node node, OfferKey key) {
+        while (node != null) {
+            int comparison = key.compareTo(node.key);
+            if (comparison == 0) {
+                return node.offer;
+            }
+            node = comparison < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private static boolean hasAfter(Node node, OfferKey key) {
+        while (node != null) {
+            if (node.key.compareTo(key) > 0) {
+                return true;
+            }
+            node = node.right;
+        }
+        return false;
+    }
+
+    private static Node put(Node node, OfferKey key, Offer offer) {
+        if (node == null) {
+            return new Node(key, offer, null, null);
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison == 0) {
+            return new Node(key, offer, node.left, node.right);
+        }
+        return comparison < 0
+                ? balance(node.key, node.offer, put(node.left, key, offer), node.right)
+                : balance(node.key, node.offer, node.left, put(node.right, key, offer));
+    }
+
+    /**
+     * Removes a key that is in the tree, replacing its node with the node that follows it when it has two children.
+     */
+    private static Node remove(Node node, OfferKey key) {
+        int comparison = key.compareTo(node.key);
+        if (comparison < 0) {
+            return balance(node.key, node.offer, remove(node.left, key), node.right);
+        }
+        if (comparison > 0) {
+            return balance(node.key, node.offer, node.left, remove(node.right, key));
+        }
+        if (node.left == null || node.right == null) {
+            return node.left == null ? node.right : node.left;
+        }
+        Node next = node.right;
+        while (next.left != null) {
+            next = next.left;
+        }
+        return balance(next.key, next.offer, node.left, removeFirst(node.right));
+    }
+
+    private static Node removeFirst(Node node) {
+        return node.left == null ? node.right : balance(node.key, node.offer, removeFirst(node.left), node.right);
+    }
+
+    /**
+     * Builds an AVL node from subtrees whose heights differ by at most two, rotating once or twice if they differ by
+     * two.
+     */
+    private static Node balance(OfferKey key, Offer offer, Node left, Node right) {
+        if (height(left) > height(right) + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.key, left.offer, left.left, new Node(key, offer, left.right, right));
+            }
+            return new Node(left.right.key, left.right.offer,
+                    new Node(left.key, left.offer, left.left, left.right.left),
+                    new Node(key, offer, left.right.right, right));
+        }
+        if (height(right) > height(left) + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.key, right.offer, new Node(key, offer, left, right.left), right.right);
+            }
+            return new Node(right.left.key, right.left.offer,
+                    new Node(key, offer, left, right.left.left),
+                    new Node(right.key, right.offer, right.left.right, right.right));
+        }
+        return new Node(key, offer, left, right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static final class Node {
+        private final OfferKey key;
+        private final Offer offer;
+        private final Node left;
+        private final Node right;
+        private final int height;
+
+        private Node(OfferKey key, Offer offer, Node left, Node right) {
+            this.key = key;
+            this.offer = offer;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+        }
+    }
+
+    /**
+     * Walks the tree in order from the first node after the given key, or from the start when it is null.
+     */
+    private static final class NodeIterator extends AbstractIterator<Offer> {
+        private final Deque<Node> path = new ArrayDeque<>();
+
+        private NodeIterator(Node root, OfferKey after) {
+            for (Node node = root; node != null; ) {
+                if (after == null || node.key.compareTo(after) > 0) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        protected Offer computeNext() {
+            if (path.isEmpty()) {
+                return endOfData();
+            }
+            Node next = path.pop();
+            for (Node node = next.right; node != null; node = node.left) {
+                path.push(node);
+            }
+            return next.offer;
+        }
+    }
+
+    private static final class Snapshot implements OfferStore {
+        private final Node root;
+
+        private Snapshot(Node root) {
+            this.root = root;
+        }
+
+        @Override
+        public Offer get(String id) {
+            return CopyOnWriteOfferStore.get(root, OfferKey.of(id));
+        }
+
+        @Override
+        public void put(Offer offer) {
+            throw new UnsupportedOperationException("snapshots are read only");
+        }
+
+        @Override
+        public Offer computeIfPresent(String id, UnaryOperator<Offer> function) {
+            throw new UnsupportedOperationException("snapshots are read only");
+        }
+
+        @Override
+        public Offer remove(String id) {
+            throw new UnsupportedOperationException("snapshots are read only");
+        }
+
+        @Override
+        public Iterator<Offer> iterator() {
+            return new NodeIterator(root, null);
+        }
+
+        @Override
+        public Iterator<Offer> iteratorAfter(String id) {
+            return new NodeIterator(root, OfferKey.of(id));
+        }
+
+        @Override
+        public boolean hasAfter(String id) {
+            return CopyOnWriteOfferStore.hasAfter(root, OfferKey.of(id));
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("snapshots are read only");
+        }
+
+        @Override
+        public OfferStore snapshot() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.echolima.offers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Remembers the id created for each idempotency key, for a while and up to a number of keys, so a client retrying a
+ * create gets the offer its first attempt made. Concurrent attempts with the same key wait for the first to finish
+ * rather than creating twice. A key is only remembered once its create succeeds, so failures can be retried. Each key
+ * is remembered with a hash of the request that used it, so reusing a key for a different request is caught rather
+ * than answered with the first request's offer.
+ *
+ * <p>Keys are only remembered by the node that saw them, so when offers are partitioned, creates with a key are sent
+ * to the node that owns the key, see {@link OffersController#createOffer}.
+ */
+public class IdempotencyKeys {
+    private final Cache<String, Creation> keyToCreation;
+
+    public IdempotencyKeys(long maxKeys, Duration timeToLive) {
+        this(maxKeys, timeToLive, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    IdempotencyKeys(long maxKeys, Duration timeToLive, Ticker ticker) {
+        checkArgument(maxKeys > 0, "maxKeys must be positive");
+        checkArgument(!timeToLive.isNegative() && !timeToLive.isZero(), "timeToLive must be positive");
+        this.keyToCreation = CacheBuilder.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(timeToLive.toNanos(), TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the id created for the key, calling create to make it if there is none, or nothing if the key was used
+     * for a request with a different hash.
+     */
+    public Optional<String> idFor(String key, HashCode requestHash, Supplier<String> create) {
+        try {
+            Creation creation = keyToCreation.get(key, () -> new Creation(create.get(), requestHash));
+            return creation.requestHash.equals(requestHash) ? Optional.of(creation.id) : Optional.empty();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static final class Creation {
+        private final String id;
+        private final HashCode requestHash;
+
+        private Creation(String id, HashCode requestHash) {
+            this.id = id;
+            this.requestHash = requestHash;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.echolima.offers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Currency;
+
+/**
+ * Compact binary form of an offer: the price as scale and unscaled bytes, the expiry date as an epoch day and both
+ * flags in one byte.
+ */
+public final class OfferBinaryCodec {
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private OfferBinaryCodec() {}
+
+    public static void write(DataOutput output, Offer offer) throws IOException {
+        output.writeUTF(offer.getId());
+        output.writeUTF(offer.getCurrency().getCurrencyCode());
+        byte[] unscaledPrice = offer.getPriceInPence().unscaledValue().toByteArray();
+        output.writeInt(offer.getPriceInPence().scale());
+        output.writeByte(unscaledPrice.length);
+        output.write(unscaledPrice);
+        output.writeLong(offer.getExpiryDate().toEpochDay());
+        byte[] description = offer.getDescription().getBytes(StandardCharsets.UTF_8);
+        output.writeInt(description.length);
+        output.write(description);
+        output.writeByte((offer.isCancelled() ? CANCELLED : 0) | (offer.isExpired() ? EXPIRED : 0));
+    }
+
+    public static Offer read(DataInput input) throws IOException {
+        Offer.OfferBuilder builder = Offer.builder()
+                .withId(input.readUTF())
+                .withCurrency(Currency.getInstance(input.readUTF()));
+        int scale = input.readInt();
+        byte[] unscaledPrice = new byte[input.readUnsignedByte()];
+        input.readFully(unscaledPrice);
+        builder.withPriceInPence(new BigDecimal(new BigInteger(unscaledPrice), scale))
+                .withExpiryDate(LocalDate.ofEpochDay(input.readLong()));
+        byte[] description = new byte[input.readInt()];
+        input.readFully(description);
+        int flags = input.readUnsignedByte();
+        return builder.withDescription(new String(description, StandardCharsets.UTF_8))
+                .withCancelled((flags & CANCELLED) != 0)
+                .withExpired((flags & EXPIRED) != 0)
+                .build();
+    }
+}
@@ -0,0 +1,39 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public final class OfferChange {
+    public enum Type {
+        CREATED,
+        CANCELLED,
+        EXPIRED,
+        REMOVED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final Offer offer;
+
+    @JsonCreator
+    public OfferChange(
+            @JsonProperty("sequence") long sequence,
+            @JsonProperty("type") Type type,
+            @JsonProperty("offer") Offer offer) {
+        this.sequence = sequence;
+        this.type = type;
+        this.offer = offer;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Offer getOffer() {
+        return offer;
+    }
+}
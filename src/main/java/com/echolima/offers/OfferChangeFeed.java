@@ -0,0 +1,193 @@
+package com.echolima.offers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The latest changes to the offers, numbered from one in the order the repository made them, so consumers can keep up
+ * by asking for what came after the last change they saw instead of downloading every offer again. Only the last
+ * capacity changes are kept, in a ring. A consumer that falls further behind than that, or that resumes from a
+ * sequence this feed never reached because the service restarted, has to reload the offers and then resume from the
+ * visible sequence as it was before reloading, which can repeat changes it already has but never misses one. Each feed
+ * has a random id, so a consumer can tell that sequences it holds came from a feed that has since restarted.
+ *
+ * <p>A creation takes its place in the feed before the offer is stored, so it comes before any change to the offer,
+ * but neither it nor any later change is handed out until the offer is stored, so consumers can read every offer they
+ * hear of.
+ */
+public class OfferChangeFeed implements OfferEventListener {
+    private final String id = UUID.randomUUID().toString();
+    private final OfferChange[] changes;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final Map<Offer, Long> reservedSequences = new IdentityHashMap<>();
+    private long latestSequence;
+    private long visibleSequence;
+
+    public OfferChangeFeed(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.changes = new OfferChange[capacity];
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the sequence of the latest change placed in the feed, which is at least that of any write that has
+     * returned, even while an earlier creation is still being stored and so holds it back from consumers.
+     */
+    public synchronized long latestSequence() {
+        return latestSequence;
+    }
+
+    /**
+     * Returns the sequence of the latest change handed out, which consumers that reload the offers resume from.
+     */
+    public synchronized long visibleSequence() {
+        return visibleSequence;
+    }
+
+    /**
+     * Returns up to limit changes after the sequence, or nothing if the changes after it are no longer all here.
+     */
+    public synchronized Optional<List<OfferChange>> changesAfter(long sequence, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        if (sequence > visibleSequence || sequence < latestSequence - changes.length) {
+            return Optional.empty();
+        }
+        List<OfferChange> page = new ArrayList<>((int) Math.min(limit, visibleSequence - sequence));
+        for (long next = sequence + 1; next <= visibleSequence && page.size() < limit; next++) {
+            page.add(changes[slot(next)]);
+        }
+        return Optional.of(page);
+    }
+
+    /**
+     * As {@link #changesAfter(long, int)}, but when there are no changes after the sequence yet, completes with the
+     * next ones instead. Cancelling the future stops waiting for them.
+     */
+    public CompletableFuture<Optional<List<OfferChange>>> awaitChangesAfter(long sequence, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        synchronized (this) {
+            if (sequence != visibleSequence) {
+                return CompletableFuture.completedFuture(changesAfter(sequence, limit));
+            }
+            Waiter waiter = new Waiter(sequence, limit);
+            waiters.add(waiter);
+            waiter.future.whenComplete((result, e) -> removeWaiter(waiter));
+            return waiter.future;
+        }
+    }
+
+    @Override
+    public void offersCreating(Collection<Offer> offers) {
+        update(() -> offers.forEach(offer -> reservedSequences.put(offer, append(OfferChange.Type.CREATED, offer))));
+    }
+
+    @Override
+    public void offerCreated(Offer offer) {
+        offersCreated(Collections.singletonList(offer));
+    }
+
+    /**
+     * Hands out the creations placed by {@link #offersCreating}, or places them now if it was not called.
+     */
+    @Override
+    public void offersCreated(Collection<Offer> offers) {
+        update(() -> offers.stream()
+                .filter(offer -> reservedSequences.remove(offer) == null)
+                .forEach(offer -> append(OfferChange.Type.CREATED, offer)));
+    }
+
+    /**
+     * Turns the creations placed for the offers into removals, which consumers that never had them can ignore.
+     */
+    @Override
+    public void offersNotCreated(Collection<Offer> offers) {
+        update(() -> offers.forEach(offer -> {
+            Long sequence = reservedSequences.remove(offer);
+            if (sequence != null && sequence > latestSequence - changes.length) {
+                changes[slot(sequence)] = new OfferChange(sequence, OfferChange.Type.REMOVED, offer);
+            }
+        }));
+    }
+
+    @Override
+    public void offerCancelled(Offer offer) {
+        publish(Collections.singletonList(offer), OfferChange.Type.CANCELLED);
+    }
+
+    @Override
+    public void offersCancelled(Collection<Offer> offers) {
+        publish(offers, OfferChange.Type.CANCELLED);
+    }
+
+    @Override
+    public void offerExpired(Offer offer) {
+        publish(Collections.singletonList(offer), OfferChange.Type.EXPIRED);
+    }
+
+    @Override
+    public void offersRemoved(Collection<Offer> offers) {
+        publish(offers, OfferChange.Type.REMOVED);
+    }
+
+    private void publish(Collection<Offer> offers, OfferChange.Type type) {
+        update(() -> offers.forEach(offer -> append(type, offer)));
+    }
+
+    /**
+     * Applies the change to the feed, then hands out every change up to the first creation not yet stored.
+     */
+    private void update(Runnable change) {
+        List<Waiter> woken;
+        synchronized (this) {
+            long previousVisibleSequence = visibleSequence;
+            change.run();
+            visibleSequence = reservedSequences.isEmpty()
+                    ? latestSequence
+                    : Collections.min(reservedSequences.values()) - 1;
+            if (visibleSequence == previousVisibleSequence) {
+                return;
+            }
+            woken = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        // Completed outside the lock, since completing runs whatever the waiting request does next.
+        woken.forEach(waiter -> waiter.future.complete(changesAfter(waiter.sequence, waiter.limit)));
+    }
+
+    private long append(OfferChange.Type type, Offer offer) {
+        latestSequence++;
+        changes[slot(latestSequence)] = new OfferChange(latestSequence, type, offer);
+        return latestSequence;
+    }
+
+    private synchronized void removeWaiter(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    private int slot(long sequence) {
+        return (int) ((sequence - 1) % changes.length);
+    }
+
+    private static final class Waiter {
+        private final long sequence;
+        private final int limit;
+        private final CompletableFuture<Optional<List<OfferChange>>> future = new CompletableFuture<>();
+
+        private Waiter(long sequence, int limit) {
+            this.sequence = sequence;
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.echolima.offers;
+
+import java.util.Collection;
+
+/**
+ * Notified of every change the repository makes to its offers, on the thread making it.
+ */
+public interface OfferEventListener {
+    /**
+     * Called before the offers become visible, so a listener can record or place their creation ahead of any change to
+     * them. Either {@link #offersCreated} or {@link #offersNotCreated} follows on the same thread.
+     */
+    default void offersCreating(Collection<Offer> offers) {
+    }
+
+    /**
+     * Called once the offer is visible, so a read made on hearing of it finds it.
+     */
+    void offerCreated(Offer offer);
+
+    default void offersCreated(Collection<Offer> offers) {
+        offers.forEach(this::offerCreated);
+    }
+
+    /**
+     * Called instead of {@link #offersCreated} when the offers were not stored after {@link #offersCreating}, such as
+     * when another listener failed to record them.
+     */
+    default void offersNotCreated(Collection<Offer> offers) {
+    }
+
+    /**
+     * Called after the offer has been cancelled, with the cancelled offer.
+     */
+    void offerCancelled(Offer offer);
+
+    default void offersCancelled(Collection<Offer> offers) {
+        offers.forEach(this::offerCancelled);
+    }
+
+    /**
+     * Called after the offer has been stored as expired, with the expired offer. Reads can return an offer as expired
+     * before this is called, since they do not wait for the sweeper.
+     */
+    default void offerExpired(Offer offer) {
+    }
+
+    /**
+     * Called after the offers have been taken out of the repository, such as when they moved to another node.
+     */
+    default void offersRemoved(Collection<Offer> offers) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.echolima.offers;
+
+import com.google.common.base.Strings;
+import org.springframework.http.MediaType;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The representations offers can be read and written in: a JSON array, newline delimited JSON objects, or Smile, a
+ * binary encoding of the same JSON model that is smaller and cheaper to write and parse, for clients and nodes that
+ * ask for it.
+ */
+public enum OfferFormat {
+    JSON(MediaType.APPLICATION_JSON_UTF8),
+    NDJSON(OffersController.APPLICATION_NDJSON),
+    SMILE(OffersController.APPLICATION_SMILE);
+
+    private final MediaType mediaType;
+
+    OfferFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public boolean isBinary() {
+        return this == SMILE;
+    }
+
+    /**
+     * The format of a single offer, which is plain JSON when newline delimited JSON was asked for.
+     */
+    public OfferFormat single() {
+        return this == NDJSON ? JSON : this;
+    }
+
+    /**
+     * Tells this format's ETags apart from those of the same content in other formats.
+     */
+    public String etagSuffix() {
+        return this == JSON ? "" : "-" + name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The most preferred of the formats an Accept header names, where application/* and wildcards stand for JSON, or
+     * the next format not refused with a quality of zero. JSON if the header names none of them.
+     */
+    public static OfferFormat forAccept(String accept) {
+        if (Strings.isNullOrEmpty(accept)) {
+            return JSON;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortByQualityValue(mediaTypes);
+        Set<OfferFormat> refused = EnumSet.noneOf(OfferFormat.class);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) {
+                Arrays.stream(values()).filter(format -> format.mediaType.includes(mediaType)).forEach(refused::add);
+            }
+        }
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) {
+                continue;
+            }
+            for (OfferFormat format : values()) {
+                if (!refused.contains(format) && (format.mediaType.includes(mediaType)
+                        || (mediaType.isWildcardSubtype() && mediaType.includes(format.mediaType)))) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * The format of a request body, Smile if its Content-Type says so and JSON otherwise, which also reads newline
+     * delimited JSON.
+     */
+    public static OfferFormat forContentType(String contentType) {
+        return !Strings.isNullOrEmpty(contentType) && SMILE.mediaType.includes(MediaType.parseMediaType(contentType))
+                ? SMILE
+                : JSON;
+    }
+}
@@ -0,0 +1,8 @@
+package com.echolima.offers;
+
+/**
+ * Hands out ids for new offers. Implementations must be safe to call from many threads and never repeat an id.
+ */
+public interface OfferIdGenerator {
+    String nextId();
+}
@@ -0,0 +1,86 @@
+package com.echolima.offers;
+
+import java.util.UUID;
+
+/**
+ * An offer id as the skip list keys on it. Ids in canonical UUID form are held as two longs, which compare in two
+ * steps however long a prefix they share, as time-ordered ids do. Anything else is kept as the string. Binary keys sort
+ * in the same order as their strings, and before every string key.
+ */
+public final class OfferKey implements Comparable<OfferKey> {
+    private static final int UUID_LENGTH = 36;
+
+    private final long high;
+    private final long low;
+    private final String text;
+
+    private OfferKey(long high, long low, String text) {
+        this.high = high;
+        this.low = low;
+        this.text = text;
+    }
+
+    public static OfferKey of(String id) {
+        if (id.length() != UUID_LENGTH) {
+            return new OfferKey(0, 0, id);
+        }
+        long high = 0;
+        long low = 0;
+        int digits = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return new OfferKey(0, 0, id);
+                }
+                continue;
+            }
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0) {
+                return new OfferKey(0, 0, id);
+            }
+            if (digits++ < 16) {
+                high = high << 4 | digit;
+            } else {
+                low = low << 4 | digit;
+            }
+        }
+        return new OfferKey(high, low, null);
+    }
+
+    public boolean isBinary() {
+        return text == null;
+    }
+
+    @Override
+    public int compareTo(OfferKey other) {
+        if (isBinary() != other.isBinary()) {
+            return isBinary() ? -1 : 1;
+        }
+        if (!isBinary()) {
+            return text.compareTo(other.text);
+        }
+        int highComparison = Long.compareUnsigned(high, other.high);
+        return highComparison != 0 ? highComparison : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OfferKey offerKey = (OfferKey) o;
+        return isBinary()
+                ? offerKey.isBinary() && high == offerKey.high && low == offerKey.low
+                : text.equals(offerKey.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return isBinary() ? Long.hashCode(high * 31 + low) : text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isBinary() ? new UUID(high, low).toString() : text;
+    }
+}
@@ -0,0 +1,22 @@
+package com.echolima.offers;
+
+import java.util.List;
+import java.util.Optional;
+
+public final class OfferPage {
+    private final List<Offer> offers;
+    private final String nextCursor;
+
+    public OfferPage(List<Offer> offers, String nextCursor) {
+        this.offers = offers;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Offer> getOffers() {
+        return offers;
+    }
+
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+}
@@ -0,0 +1,158 @@
+package com.echolima.offers;
+
+import com.google.common.base.MoreObjects;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Optional;
+
+public final class OfferQuery {
+    public static OfferQueryBuilder builder() {
+        return new OfferQueryBuilder();
+    }
+
+    private final Currency currency;
+    private final BigDecimal minPriceInPence;
+    private final BigDecimal maxPriceInPence;
+    private final OfferStatus status;
+    private final LocalDate expiringFrom;
+    private final LocalDate expiringBefore;
+    private final String descriptionContaining;
+
+    private OfferQuery(
+            Currency currency,
+            BigDecimal minPriceInPence,
+            BigDecimal maxPriceInPence,
+            OfferStatus status,
+            LocalDate expiringFrom,
+            LocalDate expiringBefore,
+            String descriptionContaining) {
+        this.currency = currency;
+        this.minPriceInPence = minPriceInPence;
+        this.maxPriceInPence = maxPriceInPence;
+        this.status = status;
+        this.expiringFrom = expiringFrom;
+        this.expiringBefore = expiringBefore;
+        this.descriptionContaining = descriptionContaining == null
+                ? null
+                : descriptionContaining.toLowerCase(Locale.ROOT);
+    }
+
+    public Optional<Currency> getCurrency() {
+        return Optional.ofNullable(currency);
+    }
+
+    public Optional<BigDecimal> getMinPriceInPence() {
+        return Optional.ofNullable(minPriceInPence);
+    }
+
+    public Optional<BigDecimal> getMaxPriceInPence() {
+        return Optional.ofNullable(maxPriceInPence);
+    }
+
+    public Optional<OfferStatus> getStatus() {
+        return Optional.ofNullable(status);
+    }
+
+    public Optional<LocalDate> getExpiringFrom() {
+        return Optional.ofNullable(expiringFrom);
+    }
+
+    public Optional<LocalDate> getExpiringBefore() {
+        return Optional.ofNullable(expiringBefore);
+    }
+
+    /**
+     * Text the description must contain, ignoring case, in lower case.
+     */
+    public Optional<String> getDescriptionContaining() {
+        return Optional.ofNullable(descriptionContaining);
+    }
+
+    public boolean isEmpty() {
+        return currency == null
+                && minPriceInPence == null
+                && maxPriceInPence == null
+                && status == null
+                && expiringFrom == null
+                && expiringBefore == null
+                && descriptionContaining == null;
+    }
+
+    public boolean matches(Offer offer) {
+        return (currency == null || currency.equals(offer.getCurrency()))
+                && (minPriceInPence == null || minPriceInPence.compareTo(offer.getPriceInPence()) <= 0)
+                && (maxPriceInPence == null || maxPriceInPence.compareTo(offer.getPriceInPence()) >= 0)
+                && (status == null || status == OfferStatus.of(offer))
+                && (expiringFrom == null || !offer.getExpiryDate().isBefore(expiringFrom))
+                && (expiringBefore == null || offer.getExpiryDate().isBefore(expiringBefore))
+                && (descriptionContaining == null
+                        || offer.getDescription().toLowerCase(Locale.ROOT).contains(descriptionContaining));
+    }
+
+    public static class OfferQueryBuilder {
+        private Currency currency;
+        private BigDecimal minPriceInPence;
+        private BigDecimal maxPriceInPence;
+        private OfferStatus status;
+        private LocalDate expiringFrom;
+        private LocalDate expiringBefore;
+        private String descriptionContaining;
+
+        public OfferQueryBuilder withCurrency(Currency currency) {
+            this.currency = currency;
+            return this;
+        }
+
+        public OfferQueryBuilder withMinPriceInPence(BigDecimal minPriceInPence) {
+            this.minPriceInPence = minPriceInPence;
+            return this;
+        }
+
+        public OfferQueryBuilder withMaxPriceInPence(BigDecimal maxPriceInPence) {
+            this.maxPriceInPence = maxPriceInPence;
+            return this;
+        }
+
+        public OfferQueryBuilder withStatus(OfferStatus status) {
+            this.status = status;
+            return this;
+        }
+
+        public OfferQueryBuilder withExpiringFrom(LocalDate expiringFrom) {
+            this.expiringFrom = expiringFrom;
+            return this;
+        }
+
+        public OfferQueryBuilder withExpiringBefore(LocalDate expiringBefore) {
+            this.expiringBefore = expiringBefore;
+            return this;
+        }
+
+        public OfferQueryBuilder withDescriptionContaining(String descriptionContaining) {
+            this.descriptionContaining = descriptionContaining;
+            return this;
+        }
+
+        public OfferQuery build() {
+            return new OfferQuery(currency, minPriceInPence, maxPriceInPence, status, expiringFrom, expiringBefore,
+                    descriptionContaining);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .omitNullValues()
+                .add("currency", currency)
+                .add("minPriceInPence", minPriceInPence)
+                .add("maxPriceInPence", maxPriceInPence)
+                .add("status", status)
+                .add("expiringFrom", expiringFrom)
+                .add("expiringBefore", expiringBefore)
+                .add("descriptionContaining", descriptionContaining)
+                .toString();
+    }
+}
@@ -0,0 +1,273 @@
+package com.echolima.offers;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Inverted index over offer descriptions. Each offer gets an int document id in creation order, so every posting
+ * list is an append-only, sorted pair of int arrays. Writers are serialised on the index, while searches read the
+ * published arrays without locking. Cancelled offers are removed by clearing their document slot, and scores count
+ * only the offers still indexed. Once more than a quarter of the slots are cleared, the posting lists are rewritten
+ * without them into a new segment, which searches already running do not see, so removed offers cannot keep growing
+ * the index.
+ */
+public class OfferSearchIndex {
+    private static final String PREFIX_WILDCARD = "*";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_REMOVED_TO_COMPACT = 1024;
+
+    private final Map<String, Integer> idToDocId = new HashMap<>();
+    private volatile Segment segment = new Segment(new ConcurrentSkipListMap<>(), new String[INITIAL_CAPACITY], 0);
+    private volatile int liveDocCount;
+
+    public synchronized void addAll(Collection<Offer> offers) {
+        offers.forEach(this::add);
+    }
+
+    public synchronized void add(Offer offer) {
+        if (idToDocId.containsKey(offer.getId())) {
+            return;
+        }
+        Segment current = segment;
+        int docId = current.docCount;
+        if (docId == current.docIdToId.length) {
+            current.docIdToId = Arrays.copyOf(current.docIdToId, docId * 2);
+        }
+        current.docIdToId[docId] = offer.getId();
+        idToDocId.put(offer.getId(), docId);
+        tokenize(offer.getDescription()).stream()
+                .collect(Collectors.groupingBy(token -> token, Collectors.counting()))
+                .forEach((token, frequency) -> current.tokenToPostings
+                        .computeIfAbsent(token, t -> new PostingList())
+                        .append(docId, frequency.intValue()));
+        current.docCount = docId + 1;
+        liveDocCount++;
+    }
+
+    public synchronized void remove(String id) {
+        clearSlot(id);
+        compactIfSparse();
+    }
+
+    public synchronized void removeAll(Collection<String> ids) {
+        ids.forEach(this::clearSlot);
+        compactIfSparse();
+    }
+
+    /**
+     * Returns the ids of up to limit offers whose description contains every term of the query, best first. A term
+     * ending in '*' matches any token starting with it. Offers are scored by term frequency times inverse document
+     * frequency, so rarer terms weigh more.
+     */
+    public List<String> search(String query, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        Segment currentSegment = segment;
+        List<List<PostingList>> terms = new ArrayList<>();
+        for (String term : query.toLowerCase(Locale.ROOT).split("\\s+")) {
+            boolean prefix = term.endsWith(PREFIX_WILDCARD);
+            List<String> tokens = tokenize(prefix ? term.substring(0, term.length() - 1) : term);
+            for (int i = 0; i < tokens.size(); i++) {
+                terms.add(postings(currentSegment, tokens.get(i), prefix && i == tokens.size() - 1));
+            }
+        }
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        terms.sort(Comparator.comparingInt(OfferSearchIndex::documentFrequency));
+
+        int documents = Math.max(1, liveDocCount);
+        String[] ids = currentSegment.docIdToId;
+        Map<Integer, Double> docIdToScore = Maps.newHashMap();
+        terms.get(0).forEach(postings -> postings.forEach((docId, frequency) ->
+                docIdToScore.merge(docId, score(frequency, postings, documents), Double::sum)));
+        for (List<PostingList> term : terms.subList(1, terms.size())) {
+            docIdToScore.entrySet().removeIf(entry -> {
+                double termScore = 0;
+                for (PostingList postings : term) {
+                    int frequency = postings.frequency(entry.getKey());
+                    termScore += frequency == 0 ? 0 : score(frequency, postings, documents);
+                }
+                entry.setValue(entry.getValue() + termScore);
+                return termScore == 0;
+            });
+        }
+
+        Comparator<Map.Entry<Integer, Double>> byScore =
+                Map.Entry.<Integer, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey());
+        PriorityQueue<Map.Entry<Integer, Double>> best = new PriorityQueue<>(limit + 1, byScore);
+        docIdToScore.entrySet().stream()
+                .filter(entry -> entry.getKey() < ids.length && ids[entry.getKey()] != null)
+                .forEach(entry -> {
+                    best.add(entry);
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                });
+        return best.stream()
+                .sorted(byScore.reversed())
+                .map(entry -> ids[entry.getKey()])
+                .collect(Collectors.toList());
+    }
+
+    public synchronized void clear() {
+        idToDocId.clear();
+        segment = new Segment(new ConcurrentSkipListMap<>(), new String[INITIAL_CAPACITY], 0);
+        liveDocCount = 0;
+    }
+
+    @VisibleForTesting
+    synchronized int postingCount() {
+        return segment.tokenToPostings.values().stream().mapToInt(PostingList::size).sum();
+    }
+
+    static List<String> tokenize(String text) {
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+"))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private void clearSlot(String id) {
+        Integer docId = idToDocId.remove(id);
+        if (docId != null) {
+            segment.docIdToId[docId] = null;
+            liveDocCount--;
+        }
+    }
+
+    /**
+     * Rewrites the segment without cleared slots once they are more than a quarter of it. Document ids keep their
+     * order, so every posting list stays sorted.
+     */
+    private void compactIfSparse() {
+        Segment current = segment;
+        int removed = current.docCount - liveDocCount;
+        if (removed < MIN_REMOVED_TO_COMPACT || removed * 4 < current.docCount) {
+            return;
+        }
+        int[] compactedDocIds = new int[current.docCount];
+        String[] docIdToId = new String[Math.max(INITIAL_CAPACITY, liveDocCount * 2)];
+        int docCount = 0;
+        for (int docId = 0; docId < current.docCount; docId++) {
+            String id = current.docIdToId[docId];
+            compactedDocIds[docId] = id == null ? -1 : docCount;
+            if (id != null) {
+                docIdToId[docCount] = id;
+                idToDocId.put(id, docCount);
+                docCount++;
+            }
+        }
+        ConcurrentNavigableMap<String, PostingList> tokenToPostings = new ConcurrentSkipListMap<>();
+        current.tokenToPostings.forEach((token, postings) -> {
+            PostingList compacted = new PostingList();
+            postings.forEach((docId, frequency) -> {
+                if (compactedDocIds[docId] >= 0) {
+                    compacted.append(compactedDocIds[docId], frequency);
+                }
+            });
+            if (compacted.size() > 0) {
+                tokenToPostings.put(token, compacted);
+            }
+        });
+        segment = new Segment(tokenToPostings, docIdToId, docCount);
+    }
+
+    private static List<PostingList> postings(Segment segment, String token, boolean prefix) {
+        if (prefix) {
+            return new ArrayList<>(segment.tokenToPostings.subMap(token, token + Character.MAX_VALUE).values());
+        }
+        PostingList postings = segment.tokenToPostings.get(token);
+        List<PostingList> result = new ArrayList<>();
+        if (postings != null) {
+            result.add(postings);
+        }
+        return result;
+    }
+
+    private static int documentFrequency(List<PostingList> term) {
+        return term.stream().mapToInt(PostingList::size).sum();
+    }
+
+    private static double score(int frequency, PostingList postings, int documents) {
+        return frequency * Math.log(1 + (double) documents / postings.size());
+    }
+
+    /**
+     * Posting lists and the offer ids of their document ids. Only compaction replaces a segment, so a search that
+     * reads the segment once sees document ids that agree with each other throughout.
+     */
+    private static final class Segment {
+        private final ConcurrentNavigableMap<String, PostingList> tokenToPostings;
+        private volatile String[] docIdToId;
+        private volatile int docCount;
+
+        private Segment(ConcurrentNavigableMap<String, PostingList> tokenToPostings, String[] docIdToId, int docCount) {
+            this.tokenToPostings = tokenToPostings;
+            this.docIdToId = docIdToId;
+            this.docCount = docCount;
+        }
+    }
+
+    private interface PostingConsumer {
+        void accept(int docId, int frequency);
+    }
+
+    /**
+     * Document ids and term frequencies in two parallel arrays. Appends publish the arrays before the size, so a
+     * reader that reads the size first always sees arrays holding at least that many postings.
+     */
+    private static final class PostingList {
+        private volatile int[] docIds = new int[4];
+        private volatile int[] frequencies = new int[4];
+        private volatile int size;
+
+        void append(int docId, int frequency) {
+            int position = size;
+            if (position == docIds.length) {
+                int[] grownDocIds = Arrays.copyOf(docIds, position * 2);
+                int[] grownFrequencies = Arrays.copyOf(frequencies, position * 2);
+                grownDocIds[position] = docId;
+                grownFrequencies[position] = frequency;
+                frequencies = grownFrequencies;
+                docIds = grownDocIds;
+            } else {
+                docIds[position] = docId;
+                frequencies[position] = frequency;
+            }
+            size = position + 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int frequency(int docId) {
+            int currentSize = size;
+            int position = Arrays.binarySearch(docIds, 0, currentSize, docId);
+            return position < 0 ? 0 : frequencies[position];
+        }
+
+        void forEach(PostingConsumer consumer) {
+            int currentSize = size;
+            int[] currentDocIds = docIds;
+            int[] currentFrequencies = frequencies;
+            for (int i = 0; i < currentSize; i++) {
+                consumer.accept(currentDocIds[i], currentFrequencies[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.echolima.offers;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count and total price of the indexed offers per currency and status, kept as offers move between statuses rather
+ * than added up from the offers when asked, so reading them costs the same for any number of offers. Each count, and
+ * each sum of ordinary prices, is a {@link LongAdder}, so writers do not contend on a shared counter and reads never
+ * block them, at the cost of a read racing a write possibly seeing its count but not yet its price. Prices are summed
+ * in ten-thousandths of a penny. Only prices under 2^32 of those go in the adder, which then cannot overflow before a
+ * total holds 2^31 offers. Larger ones are summed exactly in a {@link BigInteger} swapped in by compare-and-set.
+ */
+public class OfferStatistics {
+    static final int PRICE_SCALE = 4;
+
+    private final ConcurrentMap<Currency, Totals[]> currencyToTotals = new ConcurrentHashMap<>();
+
+    public void add(OfferStatus status, Offer offer) {
+        totals(offer.getCurrency())[status.ordinal()].add(1, priceUnits(offer));
+    }
+
+    public void subtract(OfferStatus status, Offer offer) {
+        totals(offer.getCurrency())[status.ordinal()].add(-1, priceUnits(offer).negate());
+    }
+
+    /**
+     * Returns the totals of every currency and status that has offers, by currency code and then status.
+     */
+    public List<OfferTotals> totals() {
+        List<OfferTotals> totals = new ArrayList<>();
+        currencyToTotals.forEach((currency, statusTotals) -> {
+            for (OfferStatus status : OfferStatus.values()) {
+                Totals statusTotal = statusTotals[status.ordinal()];
+                long count = statusTotal.count.sum();
+                if (count > 0) {
+                    BigDecimal totalPrice = new BigDecimal(statusTotal.priceUnits(), PRICE_SCALE);
+                    totals.add(new OfferTotals(currency, status, count, plain(totalPrice)));
+                }
+            }
+        });
+        totals.sort(OfferTotals.BY_CURRENCY_AND_STATUS);
+        return totals;
+    }
+
+    public void clear() {
+        currencyToTotals.clear();
+    }
+
+    private Totals[] totals(Currency currency) {
+        return currencyToTotals.computeIfAbsent(currency, key -> {
+            Totals[] statusTotals = new Totals[OfferStatus.values().length];
+            for (int i = 0; i < statusTotals.length; i++) {
+                statusTotals[i] = new Totals();
+            }
+            return statusTotals;
+        });
+    }
+
+    private static BigInteger priceUnits(Offer offer) {
+        return offer.getPriceInPence().setScale(PRICE_SCALE, RoundingMode.HALF_EVEN).unscaledValue();
+    }
+
+    /**
+     * Drops trailing zeros without switching to an exponent, which would read oddly in JSON.
+     */
+    private static BigDecimal plain(BigDecimal value) {
+        BigDecimal stripped = value.stripTrailingZeros();
+        return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+    }
+
+    private static final class Totals {
+        private static final int SMALL_PRICE_BITS = 32;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder smallPriceUnits = new LongAdder();
+        private final AtomicReference<BigInteger> largePriceUnits = new AtomicReference<>(BigInteger.ZERO);
+
+        private void add(long offers, BigInteger units) {
+            count.add(offers);
+            if (units.bitLength() < SMALL_PRICE_BITS) {
+                smallPriceUnits.add(units.longValue());
+            } else {
+                largePriceUnits.accumulateAndGet(units, BigInteger::add);
+            }
+        }
+
+        private BigInteger priceUnits() {
+            return largePriceUnits.get().add(BigInteger.valueOf(smallPriceUnits.sum()));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.echolima.offers;
+
+public enum OfferStatus {
+    ACTIVE,
+    CANCELLED,
+    EXPIRED;
+
+    public static OfferStatus of(Offer offer) {
+        if (offer.isCancelled()) {
+            return CANCELLED;
+        }
+        return offer.isExpired() ? EXPIRED : ACTIVE;
+    }
+}
@@ -0,0 +1,45 @@
+package com.echolima.offers;
+
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Where the repository keeps its offers. Implementations must be safe to use from many threads, and their iterators
+ * must be weakly consistent: they never fail because of concurrent changes and see each offer at most once.
+ */
+public interface OfferStore {
+    Offer get(String id);
+
+    void put(Offer offer);
+
+    /**
+     * Replaces the offer with the result of the function, if there is one, and returns what was stored. The function
+     * may be called more than once, so it must not have side effects.
+     */
+    Offer computeIfPresent(String id, UnaryOperator<Offer> function);
+
+    /**
+     * Takes the offer out of the store and returns it, or null if there was none.
+     */
+    Offer remove(String id);
+
+    Iterator<Offer> iterator();
+
+    /**
+     * Iterates over the offers stored after the given id, in the store's iteration order, or returns null if the
+     * store cannot tell where an offer it does not hold would be.
+     */
+    Iterator<Offer> iteratorAfter(String id);
+
+    boolean hasAfter(String id);
+
+    void clear();
+
+    /**
+     * A read only view of the offers as they are now, which later writes do not change. Stores that cannot take one
+     * cheaply return themselves, so reads of the view are only as consistent as reads of the store.
+     */
+    default OfferStore snapshot() {
+        return this;
+    }
+}
@@ -0,0 +1,65 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Comparator;
+import java.util.Currency;
+
+/**
+ * How many offers there are in one currency and status, and their total and average price.
+ */
+public final class OfferTotals {
+    public static final Comparator<OfferTotals> BY_CURRENCY_AND_STATUS = Comparator
+            .comparing((OfferTotals totals) -> totals.getCurrency().getCurrencyCode())
+            .thenComparing(OfferTotals::getStatus);
+
+    private final Currency currency;
+    private final OfferStatus status;
+    private final long count;
+    private final BigDecimal totalPriceInPence;
+
+    @JsonCreator
+    public OfferTotals(
+            @JsonProperty("currency") Currency currency,
+            @JsonProperty("status") OfferStatus status,
+            @JsonProperty("count") long count,
+            @JsonProperty("totalPriceInPence") BigDecimal totalPriceInPence) {
+        this.currency = currency;
+        this.status = status;
+        this.count = count;
+        this.totalPriceInPence = totalPriceInPence;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public OfferStatus getStatus() {
+        return status;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotalPriceInPence() {
+        return totalPriceInPence;
+    }
+
+    public BigDecimal getAveragePriceInPence() {
+        return count == 0
+                ? BigDecimal.ZERO
+                : totalPriceInPence.divide(
+                        BigDecimal.valueOf(count), OfferStatistics.PRICE_SCALE, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Adds up the totals of the same currency and status, such as those of two partitions.
+     */
+    public OfferTotals plus(OfferTotals other) {
+        return new OfferTotals(currency, status, count + other.count, totalPriceInPence.add(other.totalPriceInPence));
+    }
+}
@@ -1,19 +1,249 @@
 package com.echolima.offers;
 
-import com.google.common.collect.Maps;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 @SpringBootApplication
+@EnableScheduling
 public class OffersApplication {
+	public enum StorageMode {
+		SKIP_LIST,
+		COMPACT,
+		COPY_ON_WRITE
+	}
+
+	public enum IdGeneration {
+		TIME_ORDERED,
+		RANDOM
+	}
 
 	public static void main(String[] args) {
 		SpringApplication.run(OffersApplication.class, args);
 	}
 
 	@Bean
-	public OffersRepository offersRepository(TimeService timeService) {
-		return new OffersRepository(timeService, Maps.newHashMap());
+	public OffersRepository offersRepository(
+			TimeService timeService,
+			OffersMetrics offersMetrics,
+			Optional<OffersJournal> offersJournal,
+			Optional<OffersTiering> offersTiering,
+			@Value("${offers.storage:SKIP_LIST}") StorageMode storageMode) throws IOException {
+		OffersRepository offersRepository = new OffersRepository(timeService, offerStore(storageMode), offersMetrics);
+		offersMetrics.bind(offersRepository);
+		if (offersTiering.isPresent()) {
+			offersTiering.get().attach(offersRepository, offersMetrics);
+		}
+		if (offersJournal.isPresent()) {
+			offersJournal.get().attach(offersRepository);
+		}
+		return offersRepository;
+	}
+
+	private static OfferStore offerStore(StorageMode storageMode) {
+		switch (storageMode) {
+			case COMPACT:
+				return new CompactOfferStore();
+			case COPY_ON_WRITE:
+				return new CopyOnWriteOfferStore();
+			default:
+				return new SkipListOfferStore(new ConcurrentSkipListMap<>());
+		}
+	}
+
+	@Bean
+	public OfferIdGenerator offerIdGenerator(
+			@Value("${offers.id.generation:TIME_ORDERED}") IdGeneration idGeneration,
+			@Value("${offers.id.node:0}") int node,
+			Optional<OffersPartitioning> offersPartitioning) {
+		OfferIdGenerator offerIdGenerator = idGeneration == IdGeneration.RANDOM
+				? () -> UUID.randomUUID().toString()
+				: new TimeOrderedOfferIdGenerator(node);
+		return offersPartitioning.isPresent() ? offersPartitioning.get().ownedIds(offerIdGenerator) : offerIdGenerator;
+	}
+
+	@Bean
+	@ConditionalOnProperty("offers.partition.nodes")
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+	public OffersPartitioning offersPartitioning(
+			@Value("${offers.partition.self}") String self,
+			@Value("${offers.partition.nodes}") String[] nodes,
+			@Value("${offers.storage:SKIP_LIST}") StorageMode storageMode,
+			@Value("${offers.partition.secret:}") String secret,
+			@Value("${offers.partition.connect-timeout-millis:1000}") int connectTimeoutMillis,
+			@Value("${offers.partition.read-timeout-millis:10000}") int readTimeoutMillis,
+			@Value("${offers.partition.fan-out-threads:32}") int fanOutThreads,
+			MappingJackson2SmileHttpMessageConverter smileConverter,
+			RestTemplateBuilder restTemplateBuilder) {
+		checkArgument(storageMode != StorageMode.COMPACT, "partitioned listings need offers kept in id order");
+		RestTemplate restTemplate = restTemplateBuilder
+				.setConnectTimeout(connectTimeoutMillis)
+				.setReadTimeout(readTimeoutMillis)
+				.build();
+		return new OffersPartitioning(self, Arrays.asList(nodes), smileConverter.getObjectMapper(), restTemplate,
+				secret, fanOutThreads);
+	}
+
+	@Bean
+	@ConditionalOnProperty("offers.replication.leader")
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+	public OffersReplication offersReplication(
+			@Value("${offers.replication.leader}") String leader,
+			@Value("${offers.replication.batch-size:1000}") int batchSize,
+			@Value("${offers.replication.wait-seconds:10}") int waitSeconds,
+			@Value("${offers.replication.connect-timeout-millis:1000}") int connectTimeoutMillis,
+			@Value("${offers.replication.read-timeout-margin-millis:10000}") int readTimeoutMarginMillis,
+			OffersRepository offersRepository,
+			OffersMetrics offersMetrics,
+			MappingJackson2SmileHttpMessageConverter smileConverter,
+			RestTemplateBuilder restTemplateBuilder) {
+		// Polling the change feed waits up to its longest wait before the leader answers at all.
+		int readTimeoutMillis =
+				(int) TimeUnit.SECONDS.toMillis(OffersController.MAX_WAIT_SECONDS) + readTimeoutMarginMillis;
+		RestTemplate restTemplate = restTemplateBuilder
+				.setConnectTimeout(connectTimeoutMillis)
+				.setReadTimeout(readTimeoutMillis)
+				.build();
+		OffersReplication offersReplication = new OffersReplication(leader, offersRepository,
+				smileConverter.getObjectMapper(), restTemplate, batchSize, waitSeconds);
+		offersMetrics.bind(offersReplication);
+		return offersReplication;
+	}
+
+	@Bean
+	@ConditionalOnProperty("offers.replication.leader")
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+	public WebMvcConfigurer replicaWebMvcConfigurer(
+			OffersReplication offersReplication,
+			@Value("${offers.replication.read-wait-millis:1000}") long readWaitMillis) {
+		ReplicaInterceptor replicaInterceptor = new ReplicaInterceptor(offersReplication, readWaitMillis);
+		return new WebMvcConfigurer() {
+			@Override
+			public void addInterceptors(InterceptorRegistry registry) {
+				registry.addInterceptor(replicaInterceptor)
+						.addPathPatterns("/offers", "/offers/**")
+						.excludePathPatterns("/offers/replication", "/offers/replication/**");
+			}
+		};
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "offers.admission.enabled", havingValue = "true")
+	@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+	public WebMvcConfigurer admissionWebMvcConfigurer(
+			OffersMetrics offersMetrics,
+			@Value("${offers.admission.client-rate:100}") double clientRate,
+			@Value("${offers.admission.client-burst:200}") double clientBurst,
+			@Value("${offers.admission.bulk-cost:10}") double bulkCost,
+			@Value("${offers.admission.max-point-requests:200}") int maxPointRequests,
+			@Value("${offers.admission.max-bulk-requests:16}") int maxBulkRequests,
+			@Value("${offers.admission.point-latency-target-millis:50}") long pointLatencyTargetMillis,
+			@Value("${offers.admission.client-id-header:}") String clientIdHeader,
+			@Value("${offers.admission.trusted-proxies:}") String[] trustedProxies,
+			@Value("${offers.partition.secret:}") String nodeSecret) {
+		AdmissionInterceptor admissionInterceptor = new AdmissionInterceptor(offersMetrics, clientRate, clientBurst,
+				bulkCost, maxPointRequests, maxBulkRequests, pointLatencyTargetMillis, clientIdHeader,
+				Arrays.asList(trustedProxies), nodeSecret);
+		offersMetrics.bind(admissionInterceptor);
+		return new WebMvcConfigurer() {
+			@Override
+			public void addInterceptors(InterceptorRegistry registry) {
+				// The change feed waits on purpose, and the rest are for operators and other nodes.
+				registry.addInterceptor(admissionInterceptor)
+						.addPathPatterns("/offers", "/offers/**")
+						.excludePathPatterns("/offers/changes", "/offers/replication", "/offers/replication/**",
+								"/offers/partition", "/offers/partition/**", "/offers/migrations");
+			}
+		};
+	}
+
+	@Bean
+	public OffersResponseCache offersResponseCache(
+			OffersRepository offersRepository,
+			ObjectMapper objectMapper,
+			MappingJackson2SmileHttpMessageConverter smileConverter,
+			@Value("${offers.cache.max-offers:100000}") long maxOffers,
+			@Value("${offers.cache.max-pages:1000}") long maxPages) {
+		OffersResponseCache offersResponseCache =
+				new OffersResponseCache(objectMapper, smileConverter.getObjectMapper(), maxOffers, maxPages);
+		offersRepository.addListener(offersResponseCache);
+		return offersResponseCache;
+	}
+
+	/**
+	 * Reads and writes Smile with the same Jackson settings as JSON. Spring MVC would otherwise add a Smile converter
+	 * of its own that ignores them, and nodes talk to each other through this one's mapper.
+	 */
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(
+			List<Jackson2ObjectMapperBuilderCustomizer> customizers) {
+		Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.smile();
+		customizers.forEach(customizer -> customizer.customize(builder));
+		return new MappingJackson2SmileHttpMessageConverter(builder.build());
+	}
+
+	@Bean
+	public OfferChangeFeed offerChangeFeed(
+			OffersRepository offersRepository,
+			@Value("${offers.changes.capacity:100000}") int capacity) {
+		OfferChangeFeed offerChangeFeed = new OfferChangeFeed(capacity);
+		offersRepository.addListener(offerChangeFeed);
+		return offerChangeFeed;
+	}
+
+	@Bean
+	public IdempotencyKeys idempotencyKeys(
+			@Value("${offers.idempotency.max-keys:100000}") long maxKeys,
+			@Value("${offers.idempotency.ttl-seconds:86400}") long timeToLiveSeconds) {
+		return new IdempotencyKeys(maxKeys, Duration.ofSeconds(timeToLiveSeconds));
+	}
+
+	@Bean
+	public OffersMetrics offersMetrics(MeterRegistry meterRegistry) {
+		return new OffersMetrics(meterRegistry);
+	}
+
+	@Bean
+	@ConditionalOnProperty("offers.journal.directory")
+	public OffersJournal offersJournal(
+			@Value("${offers.journal.directory}") String directory,
+			@Value("${offers.journal.sync:BATCH}") OffersJournal.SyncMode syncMode,
+			@Value("${offers.journal.sync-interval-millis:100}") long syncIntervalMillis) {
+		return new OffersJournal(Paths.get(directory), syncMode, syncIntervalMillis);
+	}
+
+	@Bean
+	@ConditionalOnProperty("offers.tiering.directory")
+	public OffersTiering offersTiering(
+			@Value("${offers.tiering.directory}") String directory,
+			@Value("${offers.tiering.retention-days:7}") int retentionDays,
+			@Value("${offers.tiering.max-hot-offers:1000000}") long maxHotOffers,
+			TimeService timeService) throws IOException {
+		return new OffersTiering(Paths.get(directory), timeService, retentionDays, maxHotOffers);
 	}
 }
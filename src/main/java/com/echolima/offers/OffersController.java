@@ -1,75 +1,700 @@
 package com.echolima.offers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponents;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/offers")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class OffersController {
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String LATEST_SEQUENCE = "Latest-Sequence";
+    public static final String CHANGE_FEED_ID = "Change-Feed-Id";
+
+    static final int BATCH_SIZE = 1000;
+    static final int MAX_WAIT_SECONDS = 30;
+
+    private static final TypeReference<List<Offer>> OFFER_LIST = new TypeReference<List<Offer>>() {};
+    private static final TypeReference<List<OfferTotals>> TOTALS_LIST = new TypeReference<List<OfferTotals>>() {};
+
     private final OffersRepository offersRepository;
+    private final TimeService timeService;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper smileMapper;
+    private final OffersMetrics metrics;
+    private final OfferIdGenerator offerIdGenerator;
+    private final OffersResponseCache responseCache;
+    private final IdempotencyKeys idempotencyKeys;
+    private final OfferChangeFeed changeFeed;
+    private final Optional<OffersPartitioning> partitioning;
+    private final Optional<OffersReplication> replication;
 
-    public OffersController(OffersRepository offersRepository) {
+    public OffersController(
+            OffersRepository offersRepository,
+            TimeService timeService,
+            ObjectMapper objectMapper,
+            MappingJackson2SmileHttpMessageConverter smileConverter,
+            OffersMetrics metrics,
+            OfferIdGenerator offerIdGenerator,
+            OffersResponseCache responseCache,
+            IdempotencyKeys idempotencyKeys,
+            OfferChangeFeed changeFeed,
+            Optional<OffersPartitioning> partitioning,
+            Optional<OffersReplication> replication) {
         this.offersRepository = offersRepository;
+        this.timeService = timeService;
+        this.objectMapper = objectMapper;
+        this.smileMapper = smileConverter.getObjectMapper();
+        this.metrics = metrics;
+        this.offerIdGenerator = offerIdGenerator;
+        this.responseCache = responseCache;
+        this.idempotencyKeys = idempotencyKeys;
+        this.changeFeed = changeFeed;
+        this.partitioning = partitioning;
+        this.replication = replication;
     }
 
+    /**
+     * Creates an offer, or with an Idempotency-Key header that was seen recently, returns the offer created then, or
+     * 422 Unprocessable Entity if the key was seen with a different offer. When partitioned, a create with a key goes
+     * to the node that owns the key, which is the only one that remembers it, so a retry sent to any node finds it.
+     * Like every write, answers with the latest sequence of the change feed, which a read from a replica can ask to
+     * have seen, see {@link ReplicaInterceptor}.
+     */
     @PostMapping
-    public ResponseEntity<?> createOffer(@RequestBody CreateOfferRequest createOfferRequest) {
+    public ResponseEntity<?> createOffer(
+            @RequestBody CreateOfferRequest createOfferRequest,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            WebRequest webRequest) throws IOException {
         if (createOfferRequest == null || isInvalid(createOfferRequest)) {
+            metrics.validationRejected();
             return ResponseEntity.badRequest().build();
         }
-        String id = UUID.randomUUID().toString();
-        offersRepository.createOffer(Offer.builder()
-                .withId(id)
-                .withPriceInPence(createOfferRequest.getOfferPriceInPence())
-                .withExpiryDate(createOfferRequest.getExpiryDate())
-                .withCurrency(Currency.getInstance(createOfferRequest.getIso4217CurrencyCode()))
-                .withDescription(createOfferRequest.getDescription())
-                .build());
+        Optional<String> id;
+        if (Strings.isNullOrEmpty(idempotencyKey)) {
+            id = Optional.of(create(createOfferRequest));
+        } else if (isPartitioned(webRequest) && !partitioning.get().owns(idempotencyKey)) {
+            HttpHeaders headers = nodeHeaders();
+            headers.set(IDEMPOTENCY_KEY, idempotencyKey);
+            return partitioning.get().forward(partitioning.get().nodeFor(idempotencyKey), HttpMethod.POST,
+                    localPathAndQuery(), headers, smileMapper.writeValueAsBytes(createOfferRequest));
+        } else {
+            id = idempotencyKeys.idFor(
+                    idempotencyKey, requestHash(createOfferRequest), () -> create(createOfferRequest));
+        }
+        if (!id.isPresent()) {
+            return ResponseEntity.unprocessableEntity().build();
+        }
 
         URI location = ServletUriComponentsBuilder
                 .fromCurrentRequest().path("/{id}")
-                .buildAndExpand(id).toUri();
+                .buildAndExpand(id.get()).toUri();
+
+        return ResponseEntity.created(location).header(LATEST_SEQUENCE, latestSequence()).build();
+    }
+
+    /**
+     * Creates offers from a JSON or Smile array, or a stream of newline delimited JSON or of Smile objects, read one
+     * at a time and handed to the repository in batches. Every item gets a result with either its new id or why it was
+     * rejected. A syntax error ends the stream, since nothing after it can be trusted.
+     */
+    @PostMapping(value = "batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    public ResponseEntity<List<BatchItemResult>> createOffers(
+            InputStream body,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType) throws IOException {
+        List<BatchItemResult> results = new ArrayList<>();
+        List<Offer> batch = new ArrayList<>(BATCH_SIZE);
+        try (MappingIterator<CreateOfferRequest> requests = mapper(OfferFormat.forContentType(contentType))
+                .readerFor(CreateOfferRequest.class).readValues(body)) {
+            for (int index = 0; ; index++) {
+                try {
+                    if (!requests.hasNextValue()) {
+                        break;
+                    }
+                    CreateOfferRequest request = requests.nextValue();
+                    if (request == null || isInvalid(request)) {
+                        metrics.validationRejected();
+                        results.add(BatchItemResult.failed(index, "invalid offer"));
+                        continue;
+                    }
+                    String id = offerIdGenerator.nextId();
+                    batch.add(toOffer(id, request));
+                    results.add(BatchItemResult.created(index, id));
+                } catch (JsonParseException e) {
+                    results.add(BatchItemResult.failed(index, "malformed input: " + e.getOriginalMessage()));
+                    break;
+                } catch (JsonProcessingException e) {
+                    results.add(BatchItemResult.failed(index, "unreadable offer: " + e.getOriginalMessage()));
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    offersRepository.createOffers(batch);
+                    batch.clear();
+                }
+            }
+        }
+        offersRepository.createOffers(batch);
 
-        return ResponseEntity.created(location).build();
+        return ResponseEntity.ok().header(LATEST_SEQUENCE, latestSequence()).body(results);
     }
 
+    /**
+     * Lists offers as JSON, newline delimited JSON or Smile, whichever the Accept header prefers, with an ETag that
+     * holds until the repository next changes, and serves pages of the unfiltered listing already serialized. When
+     * partitioned, lists every node's offers instead, see {@link #getPartitionedOffers} and
+     * {@link OffersPartitioning#iterateOffers()}, and filtered listings need a limit.
+     */
     @GetMapping
-    public List<Offer> getOffers() {
-        return offersRepository.getOffers();
+    public ResponseEntity<StreamingResponseBody> getOffers(
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "currency", required = false) String currency,
+            @RequestParam(value = "minPrice", required = false) BigDecimal minPrice,
+            @RequestParam(value = "maxPrice", required = false) BigDecimal maxPrice,
+            @RequestParam(value = "status", required = false) OfferStatus status,
+            @RequestParam(value = "expiringBefore", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+                    LocalDate expiringBefore,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest webRequest) throws IOException {
+        if ((limit != null && limit <= 0) || (currency != null && isInvalidCurrencyCode(currency))) {
+            return ResponseEntity.badRequest().build();
+        }
+        OfferQuery query = OfferQuery.builder()
+                .withCurrency(currency == null ? null : Currency.getInstance(currency))
+                .withMinPriceInPence(minPrice)
+                .withMaxPriceInPence(maxPrice)
+                .withStatus(status)
+                .withExpiringBefore(expiringBefore)
+                .build();
+        // Filtered results come back in index order, so they can be capped but not paged with a cursor.
+        if (!query.isEmpty() && cursor != null) {
+            return ResponseEntity.badRequest().build();
+        }
+        OfferFormat format = OfferFormat.forAccept(accept);
+        if (isPartitioned(webRequest)) {
+            if (limit == null && query.isEmpty()) {
+                return streamOffers(ResponseEntity.ok(), partitioning.get().iterateOffers(), format);
+            }
+            // Filtered results cannot be read from the nodes a page at a time, so they have to be capped.
+            return limit == null
+                    ? ResponseEntity.badRequest().build()
+                    : getPartitionedOffers(limit, !query.isEmpty(), format);
+        }
+        LocalDate today = timeService.now();
+        long generation = offersRepository.generation();
+        if (webRequest.checkNotModified(OffersResponseCache.listingEtag(today, generation, format))) {
+            return null;
+        }
+        if (!query.isEmpty()) {
+            Stream<Offer> offers = offersRepository.findOffers(query);
+            return streamOffers(
+                    ResponseEntity.ok(), (limit == null ? offers : offers.limit(limit)).iterator(), format);
+        }
+        if (limit == null) {
+            return streamOffers(ResponseEntity.ok(), offersRepository.iterateOffers(), format);
+        }
+        Optional<OffersResponseCache.SerializedPage> cachedPage =
+                responseCache.page(cursor, limit, format, today, generation);
+        Optional<OffersResponseCache.SerializedPage> servedPage = cachedPage.isPresent()
+                ? cachedPage
+                : serializePage(cursor, limit, format, today, generation);
+        // Compact storage cannot resume from an offer it no longer holds.
+        if (!servedPage.isPresent()) {
+            return ResponseEntity.badRequest().build();
+        }
+        OffersResponseCache.SerializedPage page = servedPage.get();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        page.getNextCursor().ifPresent(nextCursor -> response.header(HttpHeaders.LINK, "<" + ServletUriComponentsBuilder
+                .fromCurrentRequest()
+                .replaceQueryParam("cursor", nextCursor)
+                .build().toUriString() + ">; rel=\"next\""));
+
+        return response
+                .contentType(format.getMediaType())
+                .body(outputStream -> outputStream.write(page.getBytes()));
+    }
+
+    @GetMapping("search")
+    public ResponseEntity<List<Offer>> searchOffers(
+            @RequestParam("q") String query,
+            @RequestParam(value = "limit", defaultValue = "20") int limit,
+            WebRequest webRequest) throws IOException {
+        if (Strings.isNullOrEmpty(query) || limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (isPartitioned(webRequest)) {
+            // Scores are not comparable between nodes, so their best results take turns.
+            List<Iterator<Offer>> nodeOffers = new ArrayList<>();
+            for (ResponseEntity<byte[]> response : fanOut(HttpMethod.GET, null)) {
+                nodeOffers.add(smileMapper.<List<Offer>>readValue(response.getBody(), OFFER_LIST).iterator());
+            }
+            List<Offer> offers = new ArrayList<>(limit);
+            while (offers.size() < limit && nodeOffers.stream().anyMatch(Iterator::hasNext)) {
+                nodeOffers.stream().filter(Iterator::hasNext).limit(limit - offers.size())
+                        .forEach(iterator -> offers.add(iterator.next()));
+            }
+            return ResponseEntity.ok(offers);
+        }
+        return ResponseEntity.ok(offersRepository.searchOffers(query, limit));
+    }
+
+    /**
+     * Returns the count, total and average price of the listed offers per currency and status, read from totals the
+     * repository keeps as offers change, so the answer costs the same however many offers there are.
+     */
+    @GetMapping("stats")
+    public ResponseEntity<List<OfferTotals>> getStatistics(WebRequest webRequest) throws IOException {
+        if (isPartitioned(webRequest)) {
+            Map<String, OfferTotals> keyToTotals = new HashMap<>();
+            for (ResponseEntity<byte[]> response : fanOut(HttpMethod.GET, null)) {
+                for (OfferTotals totals : smileMapper.<List<OfferTotals>>readValue(response.getBody(), TOTALS_LIST)) {
+                    keyToTotals.merge(totals.getCurrency() + " " + totals.getStatus(), totals, OfferTotals::plus);
+                }
+            }
+            List<OfferTotals> totals = new ArrayList<>(keyToTotals.values());
+            totals.sort(OfferTotals.BY_CURRENCY_AND_STATUS);
+            return ResponseEntity.ok(totals);
+        }
+        return ResponseEntity.ok(offersRepository.getStatistics());
+    }
+
+    /**
+     * Returns the changes after a sequence, waiting up to waitSeconds for the next ones if there are none yet. Answers
+     * 410 Gone when the changes after it are no longer kept, see {@link OfferChangeFeed}. Every response carries the
+     * latest sequence, to resume from after reloading the offers, and the id of the feed the sequences belong to.
+     */
+    @GetMapping("changes")
+    public DeferredResult<ResponseEntity<List<OfferChange>>> getChanges(
+            @RequestParam("after") long after,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "waitSeconds", defaultValue = "0") int waitSeconds) {
+        if (after < 0 || limit <= 0 || waitSeconds < 0) {
+            return completed(ResponseEntity.badRequest().build());
+        }
+        if (waitSeconds == 0) {
+            return completed(changesResponse(changeFeed.changesAfter(after, limit)));
+        }
+        DeferredResult<ResponseEntity<List<OfferChange>>> result =
+                new DeferredResult<>(TimeUnit.SECONDS.toMillis(Math.min(waitSeconds, MAX_WAIT_SECONDS)));
+        CompletableFuture<Optional<List<OfferChange>>> changes = changeFeed.awaitChangesAfter(after, limit);
+        changes.thenAccept(page -> result.setResult(changesResponse(page)));
+        result.onTimeout(() -> {
+            changes.cancel(false);
+            result.setResult(changesResponse(Optional.of(Collections.emptyList())));
+        });
+        return result;
     }
 
     @GetMapping("{id}")
-    public ResponseEntity<?> getOffer(@PathVariable("id") String id) {
+    public ResponseEntity<byte[]> getOffer(
+            @PathVariable("id") String id,
+            @RequestHeader HttpHeaders headers,
+            WebRequest webRequest) throws IOException {
+        if (isPartitioned(webRequest) && !partitioning.get().owns(id)) {
+            return partitioning.get().forward(
+                    partitioning.get().nodeFor(id), HttpMethod.GET, localPathAndQuery(), headers, null);
+        }
         Optional<Offer> offerOptional = offersRepository.getOffer(id);
+        if (!offerOptional.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        OfferFormat format = OfferFormat.forAccept(headers.getFirst(HttpHeaders.ACCEPT)).single();
+        OffersResponseCache.SerializedOffer offer = responseCache.serialize(offerOptional.get(), format);
+        if (webRequest.checkNotModified(offer.getEtag())) {
+            return null;
+        }
 
-        return offerOptional.isPresent() ? ResponseEntity.ok(offerOptional.get()) : ResponseEntity.notFound().build();
+        return ResponseEntity.ok().contentType(format.getMediaType()).body(offer.getBytes());
     }
 
     @DeleteMapping("{id}")
-    public ResponseEntity<?> cancelOffer(@PathVariable("id") String id) {
-        if (offersRepository.getOffer(id).isPresent()) {
-            offersRepository.cancel(id);
-            return ResponseEntity.noContent().build();
+    public ResponseEntity<?> cancelOffer(
+            @PathVariable("id") String id,
+            @RequestHeader HttpHeaders headers,
+            WebRequest webRequest) {
+        if (isPartitioned(webRequest) && !partitioning.get().owns(id)) {
+            return partitioning.get().forward(
+                    partitioning.get().nodeFor(id), HttpMethod.DELETE, localPathAndQuery(), headers, null);
+        }
+        if (offersRepository.cancel(id)) {
+            return ResponseEntity.noContent().header(LATEST_SEQUENCE, latestSequence()).build();
         }
 
         return ResponseEntity.notFound().build();
     }
 
-    private static boolean isInvalid(CreateOfferRequest request) {
+    /**
+     * Cancels every active offer the request picks out in one pass over the repository, and returns how many it
+     * cancelled.
+     */
+    @PostMapping("cancellations")
+    public ResponseEntity<Map<String, Integer>> cancelOffers(
+            @RequestBody CancelOffersRequest cancelOffersRequest,
+            WebRequest webRequest) throws IOException {
+        if (cancelOffersRequest == null || isInvalid(cancelOffersRequest)) {
+            metrics.validationRejected();
+            return ResponseEntity.badRequest().build();
+        }
+        if (isPartitioned(webRequest)) {
+            int cancelled = 0;
+            for (ResponseEntity<byte[]> response :
+                    fanOut(HttpMethod.POST, smileMapper.writeValueAsBytes(cancelOffersRequest))) {
+                cancelled += smileMapper.readTree(response.getBody()).get("cancelled").asInt();
+            }
+            return ResponseEntity.ok(Collections.singletonMap("cancelled", cancelled));
+        }
+        int cancelled = cancelOffersRequest.getIds() != null
+                ? offersRepository.cancelOffers(cancelOffersRequest.getIds())
+                : offersRepository.cancelOffers(toQuery(cancelOffersRequest));
+
+        return ResponseEntity.ok()
+                .header(LATEST_SEQUENCE, latestSequence())
+                .body(Collections.singletonMap("cancelled", cancelled));
+    }
+
+    @GetMapping("partition")
+    public ResponseEntity<List<String>> getPartitionNodes() {
+        return partitioning.map(offersPartitioning -> ResponseEntity.ok(offersPartitioning.getNodes()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Splits the offers between a new set of nodes. Every node, old or new, first switches to the new nodes, and then
+     * moves the offers it no longer owns, so no node sends offers to one that would send them back. Returns how many
+     * offers moved. Only another node may switch just this one.
+     */
+    @PutMapping("partition")
+    public ResponseEntity<Map<String, Integer>> setPartitionNodes(
+            @RequestBody List<String> nodes,
+            @RequestHeader(value = OffersPartitioning.NODE_SECRET, required = false) String nodeSecret,
+            WebRequest webRequest) throws IOException {
+        if (!partitioning.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (nodes == null || nodes.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!isPartitioned(webRequest)) {
+            if (!partitioning.get().isFromNode(nodeSecret)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            }
+            partitioning.get().setNodes(nodes);
+            return ResponseEntity.ok(Collections.singletonMap("moved", 0));
+        }
+        Set<String> allNodes = new LinkedHashSet<>(partitioning.get().getNodes());
+        allNodes.addAll(nodes);
+        HttpHeaders headers = nodeHeaders();
+        checkFanOut(partitioning.get().fanOut(allNodes, HttpMethod.PUT, "/offers/partition?" + OffersPartitioning.LOCAL
+                + "=true", headers, smileMapper.writeValueAsBytes(nodes)));
+        int moved = 0;
+        for (ResponseEntity<byte[]> response : checkFanOut(partitioning.get().fanOut(allNodes, HttpMethod.POST,
+                "/offers/partition/rebalance?" + OffersPartitioning.LOCAL + "=true", headers, null))) {
+            moved += smileMapper.readTree(response.getBody()).get("moved").asInt();
+        }
+        return ResponseEntity.ok(Collections.singletonMap("moved", moved));
+    }
+
+    /**
+     * Moves the offers this node no longer owns to their owners, when another node asks.
+     */
+    @PostMapping("partition/rebalance")
+    public ResponseEntity<Map<String, Integer>> rebalance(
+            @RequestHeader(value = OffersPartitioning.NODE_SECRET, required = false) String nodeSecret) {
+        if (!partitioning.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!partitioning.get().isFromNode(nodeSecret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(Collections.singletonMap("moved", partitioning.get().rebalance(offersRepository)));
+    }
+
+    /**
+     * Takes offers moving here from another node as they are, whatever their status. Only another node may send
+     * them, since they are stored without being validated.
+     */
+    @PostMapping("migrations")
+    public ResponseEntity<?> migrateOffers(
+            @RequestBody List<Offer> offers,
+            @RequestHeader(value = OffersPartitioning.NODE_SECRET, required = false) String nodeSecret) {
+        if (!partitioning.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!partitioning.get().isFromNode(nodeSecret)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        offersRepository.createOffers(offers);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("replication")
+    public ResponseEntity<Map<String, Object>> getReplication() {
+        return replication.map(offersReplication -> ResponseEntity.ok(offersReplication.status()))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Stops following the leader and starts taking writes, with every offer already in memory.
+     */
+    @PostMapping("replication/promote")
+    public ResponseEntity<?> promote() {
+        if (!replication.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        replication.get().promote();
+        return ResponseEntity.noContent().build();
+    }
+
+    private String latestSequence() {
+        return Long.toString(changeFeed.latestSequence());
+    }
+
+    private static <T> DeferredResult<T> completed(T value) {
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(value);
+        return result;
+    }
+
+    private ResponseEntity<List<OfferChange>> changesResponse(Optional<List<OfferChange>> changes) {
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(changes.isPresent() ? HttpStatus.OK : HttpStatus.GONE)
+                .header(LATEST_SEQUENCE, Long.toString(changeFeed.visibleSequence()))
+                .header(CHANGE_FEED_ID, changeFeed.getId());
+        return changes.isPresent() ? response.body(changes.get()) : response.build();
+    }
+
+    private String create(CreateOfferRequest createOfferRequest) {
+        String id = offerIdGenerator.nextId();
+        offersRepository.createOffer(toOffer(id, createOfferRequest));
+        return id;
+    }
+
+    private boolean isPartitioned(WebRequest webRequest) {
+        return partitioning.isPresent() && !Boolean.parseBoolean(webRequest.getParameter(OffersPartitioning.LOCAL));
+    }
+
+    /**
+     * Merges every node's answer to the same capped listing. Unfiltered offers are merged in id order, which is each
+     * node's own order, so a cursor from one page is a position on every node. The nodes' answers are read whole
+     * before any is written, which the limit keeps to limit offers a node.
+     */
+    private ResponseEntity<StreamingResponseBody> getPartitionedOffers(
+            int limit, boolean filtered, OfferFormat format) throws IOException {
+        Map<String, Offer> idToOffer = new LinkedHashMap<>();
+        boolean nodeHasMore = false;
+        for (ResponseEntity<byte[]> response : fanOut(HttpMethod.GET, null)) {
+            smileMapper.<List<Offer>>readValue(response.getBody(), OFFER_LIST)
+                    .forEach(offer -> idToOffer.putIfAbsent(offer.getId(), offer));
+            nodeHasMore |= response.getHeaders().containsKey(HttpHeaders.LINK);
+        }
+        List<Offer> offers = new ArrayList<>(idToOffer.values());
+        if (!filtered) {
+            offers.sort(Comparator.comparing(offer -> OfferKey.of(offer.getId())));
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (offers.size() > limit) {
+            offers = offers.subList(0, limit);
+            nodeHasMore = true;
+        }
+        if (!filtered && nodeHasMore && !offers.isEmpty()) {
+            response.header(HttpHeaders.LINK, "<" + ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("cursor", offers.get(offers.size() - 1).getId())
+                    .build().toUriString() + ">; rel=\"next\"");
+        }
+        return streamOffers(response, offers.iterator(), format);
+    }
+
+    /**
+     * Sends this request to every node as a local request in Smile, and fails if any of them did not answer 2xx.
+     */
+    private List<ResponseEntity<byte[]>> fanOut(HttpMethod method, byte[] body) {
+        return checkFanOut(partitioning.get().fanOut(method, localPathAndQuery(), nodeHeaders(), body));
+    }
+
+    private static List<ResponseEntity<byte[]>> checkFanOut(List<ResponseEntity<byte[]>> responses) {
+        for (ResponseEntity<byte[]> response : responses) {
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                throw new ResponseStatusException(
+                        HttpStatus.BAD_GATEWAY, "a node answered " + response.getStatusCode());
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Nodes talk to each other in Smile, which is smaller and cheaper to parse than JSON.
+     */
+    private static HttpHeaders nodeHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(APPLICATION_SMILE));
+        headers.setContentType(APPLICATION_SMILE);
+        return headers;
+    }
+
+    private static String localPathAndQuery() {
+        UriComponents uri = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam(OffersPartitioning.LOCAL, true)
+                .build();
+        return uri.getPath() + "?" + uri.getQuery();
+    }
+
+    static Offer toOffer(String id, CreateOfferRequest request) {
+        return Offer.builder()
+                .withId(id)
+                .withPriceInPence(request.getOfferPriceInPence())
+                .withExpiryDate(request.getExpiryDate())
+                .withCurrency(Currency.getInstance(request.getIso4217CurrencyCode()))
+                .withDescription(request.getDescription())
+                .build();
+    }
+
+    private Optional<OffersResponseCache.SerializedPage> serializePage(
+            String cursor, int limit, OfferFormat format, LocalDate day, long generation) throws IOException {
+        Optional<OfferPage> page = offersRepository.getOffers(cursor, limit);
+        if (!page.isPresent()) {
+            return Optional.empty();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeOffers(page.get().getOffers().iterator(), format, bytes);
+        return Optional.of(responseCache.putPage(cursor, limit, format, day, generation, bytes.toByteArray(),
+                page.get().getNextCursor().orElse(null)));
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamOffers(
+            ResponseEntity.BodyBuilder response, Iterator<Offer> offers, OfferFormat format) {
+        return response
+                .contentType(format.getMediaType())
+                .body(outputStream -> writeOffers(offers, format, outputStream));
+    }
+
+    private void writeOffers(Iterator<Offer> offers, OfferFormat format, OutputStream outputStream)
+            throws IOException {
+        long start = System.nanoTime();
+        boolean ndjson = format == OfferFormat.NDJSON;
+        try (JsonGenerator generator = mapper(format).getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (ndjson) {
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartArray();
+            }
+            while (offers.hasNext()) {
+                generator.writeObject(offers.next());
+                if (ndjson) {
+                    generator.writeRaw('\n');
+                }
+            }
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+        }
+        metrics.recordSerialization(format, start);
+    }
+
+    private ObjectMapper mapper(OfferFormat format) {
+        return format.isBinary() ? smileMapper : objectMapper;
+    }
+
+    static OfferQuery toQuery(CancelOffersRequest request) {
+        return OfferQuery.builder()
+                .withCurrency(request.getIso4217CurrencyCode() == null
+                        ? null
+                        : Currency.getInstance(request.getIso4217CurrencyCode()))
+                .withDescriptionContaining(request.getDescriptionContaining())
+                .withExpiringFrom(request.getExpiringFrom())
+                .withExpiringBefore(request.getExpiringBefore())
+                .build();
+    }
+
+    /**
+     * Ids cannot be combined with filters, and a request must have one or the other, so an empty request cannot
+     * cancel every offer.
+     */
+    static boolean isInvalid(CancelOffersRequest request) {
+        boolean hasFilter = request.getIso4217CurrencyCode() != null
+                || request.getDescriptionContaining() != null
+                || request.getExpiringFrom() != null
+                || request.getExpiringBefore() != null;
+        return (request.getIds() == null) == !hasFilter
+                || (request.getIso4217CurrencyCode() != null && isInvalidCurrencyCode(request.getIso4217CurrencyCode()))
+                || (request.getDescriptionContaining() != null && request.getDescriptionContaining().isEmpty());
+    }
+
+    /**
+     * Hashes what a create asks for, which an idempotency key is remembered with. Prices that differ only in trailing
+     * zeros hash the same.
+     */
+    static HashCode requestHash(CreateOfferRequest request) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        Stream.of(request.getIso4217CurrencyCode(),
+                request.getOfferPriceInPence().stripTrailingZeros().toPlainString(),
+                request.getExpiryDate().toString(),
+                request.getDescription())
+                .forEach(field -> hasher.putInt(field.length()).putString(field, StandardCharsets.UTF_8));
+        return hasher.hash();
+    }
+
+    static boolean isInvalid(CreateOfferRequest request) {
         return Strings.isNullOrEmpty(request.getDescription())
                 || Strings.isNullOrEmpty(request.getIso4217CurrencyCode())
                 || isInvalidCurrencyCode(request.getIso4217CurrencyCode())
@@ -77,7 +702,7 @@ public class OffersController {
                 || request.getOfferPriceInPence() == null;
     }
 
-    private static boolean isInvalidCurrencyCode(String currencyCode) {
+    static boolean isInvalidCurrencyCode(String currencyCode) {
         try {
             Currency.getInstance(currencyCode);
         } catch (IllegalArgumentException e) {
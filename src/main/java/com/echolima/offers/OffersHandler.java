@@ -0,0 +1,332 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The offers API as functional endpoints for the reactive stack, with the same behaviour as {@link OffersController}.
+ * Reads never block, so they run on the event loop. Writes can wait for the journal to reach the disk, so they run on
+ * a scheduler that may block. A malformed item in a batch ends the batch, as a syntax error does on the servlet stack.
+ * Offers and listings can be read as Smile, while the other endpoints answer in JSON.
+ */
+public class OffersHandler {
+    private final OffersRepository offersRepository;
+    private final TimeService timeService;
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper smileMapper;
+    private final OffersMetrics metrics;
+    private final OfferIdGenerator offerIdGenerator;
+    private final OffersResponseCache responseCache;
+    private final IdempotencyKeys idempotencyKeys;
+    private final OfferChangeFeed changeFeed;
+    private final Scheduler writeScheduler = Schedulers.elastic();
+
+    public OffersHandler(
+            OffersRepository offersRepository,
+            TimeService timeService,
+            ObjectMapper objectMapper,
+            ObjectMapper smileMapper,
+            OffersMetrics metrics,
+            OfferIdGenerator offerIdGenerator,
+            OffersResponseCache responseCache,
+            IdempotencyKeys idempotencyKeys,
+            OfferChangeFeed changeFeed) {
+        this.offersRepository = offersRepository;
+        this.timeService = timeService;
+        this.objectMapper = objectMapper;
+        this.smileMapper = smileMapper;
+        this.metrics = metrics;
+        this.offerIdGenerator = offerIdGenerator;
+        this.responseCache = responseCache;
+        this.idempotencyKeys = idempotencyKeys;
+        this.changeFeed = changeFeed;
+    }
+
+    public Mono<ServerResponse> createOffer(ServerRequest request) {
+        return request.bodyToMono(CreateOfferRequest.class)
+                .filter(createOfferRequest -> !OffersController.isInvalid(createOfferRequest))
+                .flatMap(createOfferRequest -> {
+                    Optional<String> idempotencyKey = request.headers()
+                            .header(OffersController.IDEMPOTENCY_KEY).stream().findFirst();
+                    return Mono.fromCallable(() -> idempotencyKey.isPresent()
+                            ? idempotencyKeys.idFor(idempotencyKey.get(),
+                                    OffersController.requestHash(createOfferRequest), () -> create(createOfferRequest))
+                            : Optional.of(create(createOfferRequest)))
+                            .subscribeOn(writeScheduler);
+                })
+                .flatMap(id -> id.isPresent()
+                        ? ServerResponse.created(UriComponentsBuilder.fromUri(request.uri())
+                                .path("/{id}")
+                                .buildAndExpand(id.get()).toUri())
+                                .header(OffersController.LATEST_SEQUENCE, latestSequence())
+                                .build()
+                        : ServerResponse.unprocessableEntity().build())
+                .switchIfEmpty(Mono.defer(() -> {
+                    metrics.validationRejected();
+                    return ServerResponse.badRequest().build();
+                }));
+    }
+
+    public Mono<ServerResponse> createOffers(ServerRequest request) {
+        List<BatchItemResult> results = new ArrayList<>();
+        return request.bodyToFlux(CreateOfferRequest.class)
+                .index()
+                .map(indexedRequest -> {
+                    int index = Math.toIntExact(indexedRequest.getT1());
+                    CreateOfferRequest createOfferRequest = indexedRequest.getT2();
+                    if (OffersController.isInvalid(createOfferRequest)) {
+                        metrics.validationRejected();
+                        results.add(BatchItemResult.failed(index, "invalid offer"));
+                        return Optional.<Offer>empty();
+                    }
+                    String id = offerIdGenerator.nextId();
+                    results.add(BatchItemResult.created(index, id));
+                    return Optional.of(OffersController.toOffer(id, createOfferRequest));
+                })
+                .onErrorResume(DecodingException.class, e -> {
+                    results.add(BatchItemResult.failed(results.size(), "malformed JSON: " + rootMessage(e)));
+                    return Flux.empty();
+                })
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .buffer(OffersController.BATCH_SIZE)
+                .concatMap(batch -> write(() -> offersRepository.createOffers(batch)))
+                .then(Mono.defer(() -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .header(OffersController.LATEST_SEQUENCE, latestSequence())
+                        .syncBody(results)));
+    }
+
+    public Mono<ServerResponse> getOffers(ServerRequest request) {
+        Optional<Integer> limit = parameter(request, "limit", Integer::valueOf);
+        Optional<String> cursor = request.queryParam("cursor");
+        Optional<String> currency = request.queryParam("currency");
+        if ((limit.isPresent() && limit.get() <= 0)
+                || (currency.isPresent() && OffersController.isInvalidCurrencyCode(currency.get()))) {
+            return ServerResponse.badRequest().build();
+        }
+        OfferQuery query = OfferQuery.builder()
+                .withCurrency(currency.map(Currency::getInstance).orElse(null))
+                .withMinPriceInPence(parameter(request, "minPrice", BigDecimal::new).orElse(null))
+                .withMaxPriceInPence(parameter(request, "maxPrice", BigDecimal::new).orElse(null))
+                .withStatus(parameter(request, "status", OfferStatus::valueOf).orElse(null))
+                .withExpiringBefore(parameter(request, "expiringBefore", LocalDate::parse).orElse(null))
+                .build();
+        if (!query.isEmpty() && cursor.isPresent()) {
+            return ServerResponse.badRequest().build();
+        }
+        OfferFormat format = OfferFormat.forAccept(request.headers().asHttpHeaders().getFirst(HttpHeaders.ACCEPT));
+        MediaType contentType = format.getMediaType();
+        LocalDate today = timeService.now();
+        long generation = offersRepository.generation();
+        String etag = OffersResponseCache.listingEtag(today, generation, format);
+        if (isNotModified(request, etag)) {
+            return ServerResponse.status(304).eTag(etag).build();
+        }
+        if (!query.isEmpty()) {
+            // A status filter sweeps expired offers first, and any filter can scan a long index range, so neither
+            // runs on the event loop.
+            Flux<Offer> offers = Flux.defer(() -> {
+                Stream<Offer> matches = offersRepository.findOffers(query);
+                return Flux.fromStream(limit.isPresent() ? matches.limit(limit.get()) : matches);
+            }).subscribeOn(writeScheduler);
+            return ServerResponse.ok().eTag(etag).contentType(contentType).body(offers, Offer.class);
+        }
+        if (!limit.isPresent()) {
+            return ServerResponse.ok().eTag(etag).contentType(contentType)
+                    .body(Flux.fromIterable(offersRepository::iterateOffers), Offer.class);
+        }
+        String pageCursor = cursor.orElse(null);
+        Optional<OffersResponseCache.SerializedPage> cachedPage =
+                responseCache.page(pageCursor, limit.get(), format, today, generation);
+        Optional<OffersResponseCache.SerializedPage> servedPage = cachedPage.isPresent()
+                ? cachedPage
+                : serializePage(pageCursor, limit.get(), format, today, generation);
+        // Compact storage cannot resume from an offer it no longer holds.
+        if (!servedPage.isPresent()) {
+            return ServerResponse.badRequest().build();
+        }
+        OffersResponseCache.SerializedPage page = servedPage.get();
+        ServerResponse.BodyBuilder response = ServerResponse.ok().eTag(etag).contentType(contentType);
+        page.getNextCursor().ifPresent(nextCursor -> response.header(HttpHeaders.LINK, "<" + UriComponentsBuilder
+                .fromUri(request.uri())
+                .replaceQueryParam("cursor", nextCursor)
+                .build().toUriString() + ">; rel=\"next\""));
+        return response.syncBody(page.getBytes());
+    }
+
+    public Mono<ServerResponse> searchOffers(ServerRequest request) {
+        Optional<String> query = request.queryParam("q");
+        int limit = parameter(request, "limit", Integer::valueOf).orElse(20);
+        if (!query.isPresent() || query.get().isEmpty() || limit <= 0) {
+            return ServerResponse.badRequest().build();
+        }
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(offersRepository.searchOffers(query.get(), limit));
+    }
+
+    public Mono<ServerResponse> getStatistics(ServerRequest request) {
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+                .syncBody(offersRepository.getStatistics());
+    }
+
+    public Mono<ServerResponse> getChanges(ServerRequest request) {
+        Optional<Long> after = parameter(request, "after", Long::valueOf);
+        int limit = parameter(request, "limit", Integer::valueOf).orElse(100);
+        int waitSeconds = parameter(request, "waitSeconds", Integer::valueOf).orElse(0);
+        if (!after.isPresent() || after.get() < 0 || limit <= 0 || waitSeconds < 0) {
+            return ServerResponse.badRequest().build();
+        }
+        if (waitSeconds == 0) {
+            return changesResponse(changeFeed.changesAfter(after.get(), limit));
+        }
+        CompletableFuture<Optional<List<OfferChange>>> changes = changeFeed.awaitChangesAfter(after.get(), limit);
+        return Mono.fromFuture(changes)
+                .timeout(Duration.ofSeconds(Math.min(waitSeconds, OffersController.MAX_WAIT_SECONDS)),
+                        Mono.fromSupplier(() -> Optional.of(Collections.<OfferChange>emptyList())))
+                .doFinally(signal -> changes.cancel(false))
+                .flatMap(this::changesResponse);
+    }
+
+    public Mono<ServerResponse> getOffer(ServerRequest request) {
+        Optional<Offer> offer = offersRepository.getOffer(request.pathVariable("id"));
+        if (!offer.isPresent()) {
+            return ServerResponse.notFound().build();
+        }
+        OfferFormat format = OfferFormat.forAccept(request.headers().asHttpHeaders().getFirst(HttpHeaders.ACCEPT));
+        OffersResponseCache.SerializedOffer serialized;
+        try {
+            serialized = responseCache.serialize(offer.get(), format.single());
+        } catch (IOException e) {
+            return Mono.error(e);
+        }
+        if (isNotModified(request, serialized.getEtag())) {
+            return ServerResponse.status(304).eTag(serialized.getEtag()).build();
+        }
+        return ServerResponse.ok().eTag(serialized.getEtag()).contentType(format.single().getMediaType())
+                .syncBody(serialized.getBytes());
+    }
+
+    public Mono<ServerResponse> cancelOffer(ServerRequest request) {
+        String id = request.pathVariable("id");
+        return Mono.fromCallable(() -> offersRepository.cancel(id))
+                .subscribeOn(writeScheduler)
+                .flatMap(found -> found
+                        ? ServerResponse.noContent().header(OffersController.LATEST_SEQUENCE, latestSequence()).build()
+                        : ServerResponse.notFound().build());
+    }
+
+    public Mono<ServerResponse> cancelOffers(ServerRequest request) {
+        return request.bodyToMono(CancelOffersRequest.class)
+                .filter(cancelOffersRequest -> !OffersController.isInvalid(cancelOffersRequest))
+                .flatMap(cancelOffersRequest -> Mono.fromCallable(() -> cancelOffersRequest.getIds() != null
+                        ? offersRepository.cancelOffers(cancelOffersRequest.getIds())
+                        : offersRepository.cancelOffers(OffersController.toQuery(cancelOffersRequest)))
+                        .subscribeOn(writeScheduler))
+                .flatMap(cancelled -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .header(OffersController.LATEST_SEQUENCE, latestSequence())
+                        .syncBody(Collections.singletonMap("cancelled", cancelled)))
+                .switchIfEmpty(Mono.defer(() -> {
+                    metrics.validationRejected();
+                    return ServerResponse.badRequest().build();
+                }));
+    }
+
+    private String latestSequence() {
+        return Long.toString(changeFeed.latestSequence());
+    }
+
+    private Mono<ServerResponse> changesResponse(Optional<List<OfferChange>> changes) {
+        ServerResponse.BodyBuilder response = ServerResponse
+                .status(changes.isPresent() ? HttpStatus.OK : HttpStatus.GONE)
+                .header(OffersController.LATEST_SEQUENCE, Long.toString(changeFeed.visibleSequence()))
+                .header(OffersController.CHANGE_FEED_ID, changeFeed.getId());
+        return changes.isPresent()
+                ? response.contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(changes.get())
+                : response.build();
+    }
+
+    private String create(CreateOfferRequest createOfferRequest) {
+        String id = offerIdGenerator.nextId();
+        offersRepository.createOffer(OffersController.toOffer(id, createOfferRequest));
+        return id;
+    }
+
+    private Mono<Void> write(Runnable write) {
+        return Mono.fromRunnable(write).subscribeOn(writeScheduler).then();
+    }
+
+    private Optional<OffersResponseCache.SerializedPage> serializePage(
+            String cursor, int limit, OfferFormat format, LocalDate day, long generation) {
+        Optional<OfferPage> page = offersRepository.getOffers(cursor, limit);
+        if (!page.isPresent()) {
+            return Optional.empty();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (format == OfferFormat.NDJSON) {
+                for (Offer offer : page.get().getOffers()) {
+                    objectMapper.writeValue(bytes, offer);
+                    bytes.write('\n');
+                }
+            } else {
+                (format.isBinary() ? smileMapper : objectMapper).writeValue(bytes, page.get().getOffers());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Optional.of(responseCache.putPage(cursor, limit, format, day, generation, bytes.toByteArray(),
+                page.get().getNextCursor().orElse(null)));
+    }
+
+    private static boolean isNotModified(ServerRequest request, String etag) {
+        List<String> ifNoneMatch = request.headers().asHttpHeaders().getIfNoneMatch();
+        return ifNoneMatch.contains(etag) || ifNoneMatch.contains("*");
+    }
+
+    private static <T> Optional<T> parameter(ServerRequest request, String name, Function<String, T> parser) {
+        try {
+            return request.queryParam(name).map(parser);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new ServerWebInputException("invalid " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof JsonProcessingException
+                ? ((JsonProcessingException) cause).getOriginalMessage()
+                : cause.getMessage();
+    }
+}
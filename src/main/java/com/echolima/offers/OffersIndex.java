@@ -0,0 +1,151 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Maps;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Secondary indexes from expiry date, currency and price, and status to offer ids. Entries are only ever hints: an
+ * id can briefly be indexed under a value its offer no longer has, so callers must check the offer itself.
+ */
+public class OffersIndex {
+    private final ConcurrentNavigableMap<LocalDate, Set<String>> expiryDateToIds = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Currency, ConcurrentNavigableMap<BigDecimal, Set<String>>> currencyToPriceToIds =
+            new ConcurrentHashMap<>();
+    private final Map<OfferStatus, Set<String>> statusToIds = Maps.newEnumMap(OfferStatus.class);
+    private final OfferStatistics statistics = new OfferStatistics();
+
+    public OffersIndex() {
+        for (OfferStatus status : OfferStatus.values()) {
+            statusToIds.put(status, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    public void add(Offer offer) {
+        addTo(expiryDateToIds, offer.getExpiryDate(), offer.getId());
+        addTo(currencyToPriceToIds.computeIfAbsent(offer.getCurrency(), currency -> new ConcurrentSkipListMap<>()),
+                offer.getPriceInPence(),
+                offer.getId());
+        updateStatus(offer);
+    }
+
+    public void remove(Offer offer) {
+        removeFrom(expiryDateToIds, offer.getExpiryDate(), offer.getId());
+        ConcurrentMap<BigDecimal, Set<String>> priceToIds = currencyToPriceToIds.get(offer.getCurrency());
+        if (priceToIds != null) {
+            removeFrom(priceToIds, offer.getPriceInPence(), offer.getId());
+        }
+        statusToIds.forEach((status, ids) -> {
+            if (ids.remove(offer.getId())) {
+                statistics.subtract(status, offer);
+            }
+        });
+    }
+
+    /**
+     * Status only moves from active to cancelled or from active to expired, so re-indexing from the latest offer never
+     * moves an id backwards even when two transitions race. Statistics follow each id that actually joins or leaves
+     * a status, so they agree with the status index however the transitions interleave.
+     */
+    public void updateStatus(Offer offer) {
+        OfferStatus status = OfferStatus.of(offer);
+        if (statusToIds.get(status).add(offer.getId())) {
+            statistics.add(status, offer);
+        }
+        statusToIds.forEach((otherStatus, ids) -> {
+            if (otherStatus != status && ids.remove(offer.getId())) {
+                statistics.subtract(otherStatus, offer);
+            }
+        });
+    }
+
+    public int count(OfferStatus status) {
+        return statusToIds.get(status).size();
+    }
+
+    public List<OfferTotals> totals() {
+        return statistics.totals();
+    }
+
+    public Stream<String> ids(OfferStatus status) {
+        return statusToIds.get(status).stream();
+    }
+
+    public Stream<String> idsExpiringBetween(LocalDate fromInclusive, LocalDate toExclusive) {
+        return flatten(expiryDateToIds.subMap(fromInclusive, true, toExclusive, false));
+    }
+
+    /**
+     * Picks the narrowest index the query can use, or empty when it has no indexed filter and needs a full scan.
+     */
+    public Optional<Stream<String>> candidateIds(OfferQuery query) {
+        if (query.getCurrency().isPresent()) {
+            NavigableMap<BigDecimal, Set<String>> priceToIds = currencyToPriceToIds.get(query.getCurrency().get());
+            return Optional.of(priceToIds == null ? Stream.empty() : flatten(priceRange(priceToIds, query)));
+        }
+        if (query.getMinPriceInPence().isPresent() || query.getMaxPriceInPence().isPresent()) {
+            return Optional.of(currencyToPriceToIds.values().stream()
+                    .flatMap(priceToIds -> flatten(priceRange(priceToIds, query))));
+        }
+        if (query.getExpiringFrom().isPresent() || query.getExpiringBefore().isPresent()) {
+            NavigableMap<LocalDate, Set<String>> range = expiryDateToIds;
+            if (query.getExpiringFrom().isPresent()) {
+                range = range.tailMap(query.getExpiringFrom().get(), true);
+            }
+            if (query.getExpiringBefore().isPresent()) {
+                range = range.headMap(query.getExpiringBefore().get(), false);
+            }
+            return Optional.of(flatten(range));
+        }
+        return query.getStatus().map(this::ids);
+    }
+
+    public void clear() {
+        expiryDateToIds.clear();
+        currencyToPriceToIds.clear();
+        statusToIds.values().forEach(Set::clear);
+        statistics.clear();
+    }
+
+    private static NavigableMap<BigDecimal, Set<String>> priceRange(
+            NavigableMap<BigDecimal, Set<String>> priceToIds, OfferQuery query) {
+        NavigableMap<BigDecimal, Set<String>> range = priceToIds;
+        if (query.getMinPriceInPence().isPresent()) {
+            range = range.tailMap(query.getMinPriceInPence().get(), true);
+        }
+        if (query.getMaxPriceInPence().isPresent()) {
+            range = range.headMap(query.getMaxPriceInPence().get(), true);
+        }
+        return range;
+    }
+
+    private static <K> void addTo(ConcurrentMap<K, Set<String>> index, K key, String id) {
+        index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    /**
+     * Leaves the emptied set in place, since dropping it could race with another id being added to it.
+     */
+    private static <K> void removeFrom(ConcurrentMap<K, Set<String>> index, K key, String id) {
+        Set<String> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+        }
+    }
+
+    private static Stream<String> flatten(Map<?, Set<String>> index) {
+        return index.values().stream().flatMap(Set::stream);
+    }
+}
@@ -0,0 +1,501 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Iterators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Append-only journal of offer creations, cancellations and removals, with periodic snapshots so that replay only has
+ * to read the latest snapshot and the journal segments written after it.
+ *
+ * <p>Request threads only copy their records into a buffer. A single writer thread writes the buffer out and fsyncs,
+ * so one fsync covers every record appended while the previous one was running. With {@link SyncMode#BATCH} a write
+ * returns once its record is on disk; with {@link SyncMode#INTERVAL} it returns straight away and the journal is
+ * synced every interval, so a crash can lose up to one interval of writes.
+ *
+ * <p>Every record is framed by its length and a CRC32, and replay stops at the first torn or corrupt record. A
+ * cancellation records the day it was made, which the retention of cancelled offers counts from, and replay leaves
+ * offers the repository has already archived in its cold store rather than bringing them back into memory.
+ */
+public class OffersJournal implements OfferEventListener {
+    private static final Logger LOG = LoggerFactory.getLogger(OffersJournal.class);
+
+    private static final byte CREATED = 1;
+    private static final byte CANCELLED = 2;
+    private static final byte REMOVED = 3;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    public enum SyncMode {
+        BATCH,
+        INTERVAL
+    }
+
+    private final Path directory;
+    private final SyncMode syncMode;
+    private final long syncIntervalMillis;
+
+    private final ReadWriteLock creationLock = new ReentrantReadWriteLock();
+    private final Object bufferLock = new Object();
+    private final Object channelLock = new Object();
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appendedSequence;
+    private long durableSequence;
+    private IOException failure;
+    private boolean closed;
+
+    private FileChannel channel;
+    private long segment;
+    private Thread writer;
+    private volatile OffersRepository repository;
+
+    public OffersJournal(Path directory, SyncMode syncMode, long syncIntervalMillis) {
+        checkArgument(directory != null, "directory cannot be null");
+        checkArgument(syncMode != null, "syncMode cannot be null");
+        checkArgument(syncIntervalMillis > 0, "syncIntervalMillis must be positive");
+        this.directory = directory;
+        this.syncMode = syncMode;
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Rebuilds the repository from disk, then starts journalling its changes into a new segment.
+     */
+    public void attach(OffersRepository repository) throws IOException {
+        checkState(this.repository == null, "journal is already attached");
+        Files.createDirectories(directory);
+        Replay replay = replay(repository::isArchived);
+        repository.restoreOffers(replay.idToOffer.values(), replay.archivedIds, replay.idToCancelledSince);
+        synchronized (channelLock) {
+            segment = Stream.concat(files(SEGMENT_PREFIX, SEGMENT_SUFFIX), files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+                    .mapToLong(OffersJournal::number)
+                    .max()
+                    .orElse(0) + 1;
+            channel = openSegment(segment);
+        }
+        writer = new Thread(this::writeLoop, "offers-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Set first, as recording a cancellation asks the repository when it was made.
+        this.repository = repository;
+        repository.addListener(this);
+    }
+
+    /**
+     * Records the offers before they are stored, so no read can return an offer the journal has not got. A snapshot
+     * does not start until they are stored, see {@link #snapshot()}.
+     */
+    @Override
+    public void offersCreating(Collection<Offer> offers) {
+        creationLock.readLock().lock();
+        long sequence = 0;
+        for (Offer offer : offers) {
+            sequence = append(CREATED, output -> OfferBinaryCodec.write(output, offer));
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void offerCreated(Offer offer) {
+        offersCreated(Collections.singletonList(offer));
+    }
+
+    @Override
+    public void offersCreated(Collection<Offer> offers) {
+        creationLock.readLock().unlock();
+    }
+
+    @Override
+    public void offersNotCreated(Collection<Offer> offers) {
+        creationLock.readLock().unlock();
+    }
+
+    @Override
+    public void offerCancelled(Offer offer) {
+        offersCancelled(Collections.singletonList(offer));
+    }
+
+    @Override
+    public void offersCancelled(Collection<Offer> offers) {
+        long sequence = 0;
+        for (Offer offer : offers) {
+            Optional<LocalDate> cancelledSince = repository.cancelledSince(offer.getId());
+            sequence = append(CANCELLED, output -> writeCancellation(output, offer.getId(), cancelledSince));
+        }
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void offersRemoved(Collection<Offer> offers) {
+        long sequence = 0;
+        for (Offer offer : offers) {
+            sequence = append(REMOVED, output -> output.writeUTF(offer.getId()));
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Writes every offer to a new snapshot and deletes the segments and snapshots it replaces. New writes go to a new
+     * segment first, so records written while the snapshot is taken are replayed on top of it. Replaying a creation
+     * or a cancellation twice gives the same offer, so it does not matter that some of them are also in the snapshot.
+     * The segment is rolled once creations already recorded are stored, so the snapshot has every offer whose creation
+     * is only in the segments it replaces.
+     */
+    @Scheduled(fixedRateString = "${offers.journal.snapshot-millis:600000}")
+    public void snapshot() throws IOException {
+        OffersRepository attachedRepository = repository;
+        if (attachedRepository == null) {
+            return;
+        }
+        long snapshotSegment;
+        creationLock.writeLock().lock();
+        try {
+            snapshotSegment = rollSegment();
+        } finally {
+            creationLock.writeLock().unlock();
+        }
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + snapshotSegment + ".tmp");
+        try (FileChannel snapshotChannel = FileChannel.open(
+                temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            Iterator<Offer> offers = Iterators.concat(
+                    attachedRepository.iterateOffers(), attachedRepository.iterateArchivedOffers());
+            while (offers.hasNext()) {
+                Offer offer = offers.next();
+                writeRecord(records, CREATED, output -> OfferBinaryCodec.write(output, offer));
+                Optional<LocalDate> cancelledSince = offer.isCancelled()
+                        ? attachedRepository.cancelledSince(offer.getId())
+                        : Optional.empty();
+                if (cancelledSince.isPresent()) {
+                    writeRecord(records, CANCELLED, output -> writeCancellation(output, offer.getId(), cancelledSince));
+                }
+                if (records.size() > 1 << 20) {
+                    writeFully(snapshotChannel, records.toByteArray());
+                    records.reset();
+                }
+            }
+            writeFully(snapshotChannel, records.toByteArray());
+            snapshotChannel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_PREFIX + snapshotSegment + SNAPSHOT_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        for (Path path : Stream.concat(files(SEGMENT_PREFIX, SEGMENT_SUFFIX), files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+                .filter(path -> number(path) < snapshotSegment)
+                .collect(Collectors.toList())) {
+            Files.delete(path);
+        }
+        LOG.info("Wrote offers snapshot {}", snapshotSegment);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (bufferLock) {
+            closed = true;
+            bufferLock.notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (channelLock) {
+            if (channel != null) {
+                flush(true);
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the latest snapshot and every later segment, applying records in order. Offers that are archived are only
+     * kept by id, so replay holds no more offers in memory than the repository will.
+     */
+    private Replay replay(Predicate<String> isArchived) throws IOException {
+        Replay replay = new Replay(isArchived);
+        long snapshotSegment = files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).mapToLong(OffersJournal::number).max().orElse(0);
+        if (snapshotSegment > 0) {
+            replay(directory.resolve(SNAPSHOT_PREFIX + snapshotSegment + SNAPSHOT_SUFFIX), replay);
+        }
+        for (Path path : files(SEGMENT_PREFIX, SEGMENT_SUFFIX)
+                .filter(path -> number(path) >= snapshotSegment)
+                .sorted((first, second) -> Long.compare(number(first), number(second)))
+                .collect(Collectors.toList())) {
+            replay(path, replay);
+        }
+        return replay;
+    }
+
+    private long append(byte type, RecordWriter recordWriter) {
+        synchronized (bufferLock) {
+            checkState(!closed, "journal is closed");
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            try {
+                writeRecord(buffer, type, recordWriter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (syncMode == SyncMode.BATCH) {
+                // Interval syncs are left to the timer, so appending does not wake the writer for each record.
+                bufferLock.notifyAll();
+            }
+            return ++appendedSequence;
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        if (syncMode != SyncMode.BATCH) {
+            return;
+        }
+        synchronized (bufferLock) {
+            while (durableSequence < sequence && failure == null && !closed) {
+                try {
+                    bufferLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            synchronized (bufferLock) {
+                try {
+                    if (syncMode == SyncMode.INTERVAL) {
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+                        long remainingNanos;
+                        while (!closed && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(bufferLock, remainingNanos);
+                        }
+                    } else {
+                        while (!closed && buffer.size() == 0) {
+                            bufferLock.wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            synchronized (channelLock) {
+                try {
+                    flush(true);
+                } catch (IOException e) {
+                    LOG.error("Could not write offers journal", e);
+                    synchronized (bufferLock) {
+                        failure = e;
+                        bufferLock.notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out everything appended so far. Callers hold the channel lock, so records reach the channel in the order
+     * they were appended even when a segment is being rolled.
+     */
+    private void flush(boolean sync) throws IOException {
+        byte[] records;
+        long sequence;
+        synchronized (bufferLock) {
+            if (buffer.size() == 0) {
+                return;
+            }
+            records = buffer.toByteArray();
+            sequence = appendedSequence;
+            buffer = new ByteArrayOutputStream(Math.max(32, records.length));
+        }
+        writeFully(channel, records);
+        if (sync) {
+            channel.force(false);
+        }
+        synchronized (bufferLock) {
+            durableSequence = sequence;
+            bufferLock.notifyAll();
+        }
+    }
+
+    private long rollSegment() throws IOException {
+        synchronized (channelLock) {
+            checkState(channel != null, "journal is not attached");
+            flush(true);
+            channel.close();
+            channel = openSegment(++segment);
+            return segment;
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void replay(Path path, Replay replay) throws IOException {
+        try (FileChannel replayChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer records = replayChannel.map(FileChannel.MapMode.READ_ONLY, 0, replayChannel.size());
+            CRC32 crc = new CRC32();
+            while (records.remaining() >= 8) {
+                int length = records.getInt();
+                int checksum = records.getInt();
+                if (length <= 0 || length > records.remaining()) {
+                    LOG.warn("Ignoring torn record at {} of {}", records.position() - 8, path);
+                    return;
+                }
+                byte[] record = new byte[length];
+                records.get(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Ignoring corrupt record at {} of {}", records.position() - length - 8, path);
+                    return;
+                }
+                replay.apply(new DataInputStream(new ByteArrayInputStream(record)));
+            }
+        }
+    }
+
+    /**
+     * Leaves the day out when the repository does not know it, in which case the offer's retention counts from when
+     * the repository first sees it cancelled after replay, as it does for cancellations journalled without one.
+     */
+    private static void writeCancellation(DataOutputStream output, String id, Optional<LocalDate> cancelledSince)
+            throws IOException {
+        output.writeUTF(id);
+        if (cancelledSince.isPresent()) {
+            output.writeLong(cancelledSince.get().toEpochDay());
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream output, byte type, RecordWriter recordWriter)
+            throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+        DataOutputStream recordOutput = new DataOutputStream(record);
+        recordOutput.writeByte(type);
+        recordWriter.write(recordOutput);
+        CRC32 crc = new CRC32();
+        crc.update(record.toByteArray(), 0, record.size());
+        DataOutputStream framedOutput = new DataOutputStream(output);
+        framedOutput.writeInt(record.size());
+        framedOutput.writeInt((int) crc.getValue());
+        record.writeTo(framedOutput);
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    private Stream<Path> files(String prefix, String suffix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            List<Path> matches = paths
+                    .filter(path -> path.getFileName().toString().startsWith(prefix)
+                            && path.getFileName().toString().endsWith(suffix))
+                    .collect(Collectors.toList());
+            return matches.stream();
+        }
+    }
+
+    private static long number(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * What replay rebuilds: the offers to keep in memory, the ids of those the repository already archived, and the day
+     * each cancelled offer was cancelled.
+     */
+    private static class Replay {
+        private final Predicate<String> isArchived;
+        private final Map<String, Offer> idToOffer = new LinkedHashMap<>();
+        private final Set<String> archivedIds = new HashSet<>();
+        private final Map<String, LocalDate> idToCancelledSince = new HashMap<>();
+
+        Replay(Predicate<String> isArchived) {
+            this.isArchived = isArchived;
+        }
+
+        void apply(DataInputStream record) throws IOException {
+            byte type = record.readByte();
+            if (type == CREATED) {
+                Offer offer = OfferBinaryCodec.read(record);
+                if (isArchived.test(offer.getId())) {
+                    archivedIds.add(offer.getId());
+                } else {
+                    idToOffer.put(offer.getId(), offer);
+                }
+            } else if (type == CANCELLED) {
+                String id = record.readUTF();
+                Offer offer = idToOffer.computeIfPresent(id,
+                        (cancelledId, currentOffer) -> Offer.builder(currentOffer).withCancelled(true).build());
+                if (offer != null && record.available() > 0) {
+                    idToCancelledSince.put(id, LocalDate.ofEpochDay(record.readLong()));
+                }
+            } else if (type == REMOVED) {
+                String id = record.readUTF();
+                idToOffer.remove(id);
+                archivedIds.remove(id);
+                idToCancelledSince.remove(id);
+            }
+        }
+    }
+}
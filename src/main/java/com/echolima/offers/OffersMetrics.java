@@ -0,0 +1,160 @@
+package com.echolima.offers;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for the repository and controller. Every meter is registered up front and looked up by ordinal, so recording
+ * is a clock read and an add on a lock-free meter, with nothing allocated or looked up by name on the hot path.
+ */
+public class OffersMetrics {
+    /**
+     * Records nothing, for repositories built outside the application context.
+     */
+    public static final OffersMetrics NONE = new OffersMetrics(new CompositeMeterRegistry());
+
+    public enum Operation {
+        CREATE,
+        CREATE_BATCH,
+        GET,
+        PAGE,
+        SEARCH,
+        CANCEL,
+        CANCEL_BULK,
+        EXPIRE_SWEEP,
+        REPLICATE,
+        ARCHIVE
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Timer[] operationTimers = new Timer[Operation.values().length];
+    private final Timer[] serializationTimers = new Timer[OfferFormat.values().length];
+    private final Counter expiredCopies;
+    private final Counter validationRejections;
+    private final Counter archivedOffers;
+    private final Counter[][] admissionRejections =
+            new Counter[AdmissionInterceptor.Lane.values().length][AdmissionInterceptor.Rejection.values().length];
+
+    public OffersMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (Operation operation : Operation.values()) {
+            operationTimers[operation.ordinal()] = Timer.builder("offers.repository")
+                    .description("Time spent in repository operations")
+                    .tag("operation", operation.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+        for (OfferFormat format : OfferFormat.values()) {
+            serializationTimers[format.ordinal()] = Timer.builder("offers.serialization")
+                    .description("Time spent writing offer listings")
+                    .tag("format", format.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+        expiredCopies = Counter.builder("offers.expired.copies")
+                .description("Offers copied to flip them to expired")
+                .register(meterRegistry);
+        validationRejections = Counter.builder("offers.validation.rejections")
+                .description("Offers rejected as invalid on creation")
+                .register(meterRegistry);
+        archivedOffers = Counter.builder("offers.tier.migrations")
+                .description("Offers moved from memory to the cold store")
+                .register(meterRegistry);
+        for (AdmissionInterceptor.Lane lane : AdmissionInterceptor.Lane.values()) {
+            for (AdmissionInterceptor.Rejection rejection : AdmissionInterceptor.Rejection.values()) {
+                admissionRejections[lane.ordinal()][rejection.ordinal()] = Counter
+                        .builder("offers.admission.rejections")
+                        .description("Requests turned away before reaching the API")
+                        .tag("lane", lane.name().toLowerCase(Locale.ROOT))
+                        .tag("reason", rejection.name().toLowerCase(Locale.ROOT))
+                        .register(meterRegistry);
+            }
+        }
+    }
+
+    /**
+     * Registers a gauge per status with the number of offers the repository holds in it.
+     */
+    public void bind(OffersRepository offersRepository) {
+        for (OfferStatus status : OfferStatus.values()) {
+            Gauge.builder("offers.size", offersRepository, repository -> repository.countOffers(status))
+                    .description("Offers held by status")
+                    .tag("status", status.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Registers gauges with how far a replica is behind its leader, in changes and in seconds.
+     */
+    public void bind(OffersReplication offersReplication) {
+        Gauge.builder("offers.replication.lag", offersReplication, OffersReplication::lagChanges)
+                .description("Changes the leader has made that this replica has not applied yet")
+                .register(meterRegistry);
+        Gauge.builder("offers.replication.lag.seconds", offersReplication, OffersReplication::lagSeconds)
+                .description("Seconds since this replica last had every change the leader had made")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers gauges with the current limit on bulk requests at once and the smoothed latency of point requests.
+     */
+    public void bind(AdmissionInterceptor admissionInterceptor) {
+        Gauge.builder("offers.admission.bulk.limit", admissionInterceptor, AdmissionInterceptor::getBulkLimit)
+                .description("Bulk requests allowed to run at once, lowered while point requests are slow")
+                .register(meterRegistry);
+        Gauge.builder("offers.admission.point.latency", admissionInterceptor,
+                AdmissionInterceptor::getPointLatencySeconds)
+                .description("Smoothed latency of point requests, in seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers gauges with the number of offers in memory and in the cold store, and the bytes of the cold store.
+     */
+    public void bind(OffersRepository offersRepository, ColdOfferStore coldOfferStore) {
+        Gauge.builder("offers.tier.size", offersRepository,
+                repository -> Arrays.stream(OfferStatus.values()).mapToInt(repository::countOffers).sum())
+                .description("Offers held by tier")
+                .tag("tier", "hot")
+                .register(meterRegistry);
+        Gauge.builder("offers.tier.size", coldOfferStore, ColdOfferStore::size)
+                .description("Offers held by tier")
+                .tag("tier", "cold")
+                .register(meterRegistry);
+        Gauge.builder("offers.tier.cold.bytes", coldOfferStore, ColdOfferStore::sizeBytes)
+                .description("Bytes written to the cold store, including those of offers since removed")
+                .register(meterRegistry);
+    }
+
+    public void record(Operation operation, long startNanos) {
+        operationTimers[operation.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSerialization(OfferFormat format, long startNanos) {
+        serializationTimers[format.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void expiredCopy() {
+        expiredCopies.increment();
+    }
+
+    public void validationRejected() {
+        validationRejections.increment();
+    }
+
+    public void admissionRejected(AdmissionInterceptor.Lane lane, AdmissionInterceptor.Rejection rejection) {
+        admissionRejections[lane.ordinal()][rejection.ordinal()].increment();
+    }
+
+    public void archived(int offers) {
+        archivedOffers.increment(offers);
+    }
+}
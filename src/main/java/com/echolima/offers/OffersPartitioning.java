@@ -0,0 +1,345 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Splits the offers between several nodes by consistent hashing of their ids. Each node holds the offers the ring
+ * gives it, and only creates offers with ids it owns, so creates never leave the node that took them. Reads and
+ * cancels of other ids are forwarded to their owner, and listings fan out to every node and are merged. Forwarded
+ * requests are marked local, so nodes that briefly disagree about the ring cannot forward a request back and forth.
+ *
+ * <p>When the nodes change, every node sends the offers it no longer owns to their new owners and then drops them, so
+ * an offer can be missing for a moment while it moves. Offers move between nodes in Smile. Nodes share a secret, which
+ * every request between them carries, and the requests only nodes may make are refused without it.
+ */
+public class OffersPartitioning {
+    public static final String LOCAL = "local";
+    public static final String NODE_SECRET = "Offers-Node-Secret";
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffersPartitioning.class);
+    private static final int POINTS_PER_NODE = 128;
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    private static final int LISTING_PAGE_SIZE = 1000;
+    private static final int FAN_OUT_QUEUE_PER_THREAD = 16;
+    private static final TypeReference<List<Offer>> OFFER_LIST = new TypeReference<List<Offer>>() {};
+
+    private final String self;
+    private final ObjectMapper smileMapper;
+    private final RestTemplate restTemplate;
+    private final String secret;
+    private final ThreadPoolExecutor fanOutExecutor;
+    private volatile ConsistentHashRing ring;
+
+    public OffersPartitioning(
+            String self,
+            List<String> nodes,
+            ObjectMapper smileMapper,
+            RestTemplate restTemplate,
+            String secret,
+            int fanOutThreads) {
+        checkArgument(nodes != null && nodes.contains(self), "nodes must include this node, %s", self);
+        checkArgument(fanOutThreads > 0, "fanOutThreads must be positive");
+        checkArgument(!Strings.isNullOrEmpty(secret), "nodes must share a secret");
+        this.self = self;
+        this.smileMapper = smileMapper;
+        this.restTemplate = restTemplate;
+        this.restTemplate.setErrorHandler(new PassThroughErrorHandler());
+        this.secret = secret;
+        // Once every thread is busy and the queue is full, callers forward their own requests rather than queue more.
+        this.fanOutExecutor = new ThreadPoolExecutor(fanOutThreads, fanOutThreads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(fanOutThreads * FAN_OUT_QUEUE_PER_THREAD),
+                new ThreadFactoryBuilder().setNameFormat("offers-fan-out-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.fanOutExecutor.allowCoreThreadTimeOut(true);
+        this.ring = new ConsistentHashRing(nodes, POINTS_PER_NODE);
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Replaces the nodes offers are split between. Offers this node no longer owns stay here until
+     * {@link #rebalance(OffersRepository)} moves them.
+     */
+    public void setNodes(List<String> nodes) {
+        ring = new ConsistentHashRing(nodes, POINTS_PER_NODE);
+        LOG.info("Offers are now split between {}", nodes);
+    }
+
+    public boolean owns(String id) {
+        return self.equals(ring.nodeFor(id));
+    }
+
+    public String nodeFor(String id) {
+        return ring.nodeFor(id);
+    }
+
+    /**
+     * Draws ids until one belongs to this node, which takes as many draws as there are nodes on average. A node that
+     * has been taken out of the ring owns nothing, so it keeps the first id.
+     */
+    public OfferIdGenerator ownedIds(OfferIdGenerator offerIdGenerator) {
+        return () -> {
+            ConsistentHashRing currentRing = ring;
+            String id = offerIdGenerator.nextId();
+            while (currentRing.getNodes().contains(self) && !self.equals(currentRing.nodeFor(id))) {
+                id = offerIdGenerator.nextId();
+            }
+            return id;
+        };
+    }
+
+    /**
+     * Returns whether a request carrying this {@link #NODE_SECRET} header came from one of the nodes.
+     */
+    public boolean isFromNode(String nodeSecret) {
+        return nodeSecret != null && MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8), nodeSecret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a request to a node and returns its response, whatever its status. Answers 502 Bad Gateway if the node
+     * cannot be reached. The request carries the nodes' shared secret, so the node can tell it came from another node.
+     */
+    public ResponseEntity<byte[]> forward(
+            String node, HttpMethod method, String pathAndQuery, HttpHeaders headers, byte[] body) {
+        HttpHeaders forwardedHeaders = new HttpHeaders();
+        headers.forEach((name, values) -> {
+            if (!name.equalsIgnoreCase(HttpHeaders.HOST)
+                    && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)
+                    && !name.equalsIgnoreCase(HttpHeaders.CONNECTION)) {
+                forwardedHeaders.put(name, values);
+            }
+        });
+        forwardedHeaders.set(NODE_SECRET, secret);
+        try {
+            ResponseEntity<byte[]> response = restTemplate.exchange(
+                    node + pathAndQuery, method, new HttpEntity<>(body, forwardedHeaders), byte[].class);
+            HttpHeaders responseHeaders = new HttpHeaders();
+            response.getHeaders().forEach((name, values) -> {
+                if (!name.equalsIgnoreCase(HttpHeaders.TRANSFER_ENCODING)
+                        && !name.equalsIgnoreCase(HttpHeaders.CONNECTION)) {
+                    responseHeaders.put(name, values);
+                }
+            });
+            return new ResponseEntity<>(response.getBody(), responseHeaders, response.getStatusCode());
+        } catch (RestClientException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "could not reach " + node, e);
+        }
+    }
+
+    /**
+     * Sends the same request to every node at once, this one included, and returns their responses in the order of
+     * the nodes.
+     */
+    public List<ResponseEntity<byte[]>> fanOut(
+            HttpMethod method, String pathAndQuery, HttpHeaders headers, byte[] body) {
+        return fanOut(getNodes(), method, pathAndQuery, headers, body);
+    }
+
+    public List<ResponseEntity<byte[]>> fanOut(
+            Collection<String> nodes, HttpMethod method, String pathAndQuery, HttpHeaders headers, byte[] body) {
+        List<CompletableFuture<ResponseEntity<byte[]>>> responses = nodes.stream()
+                .map(node -> CompletableFuture.supplyAsync(
+                        () -> forward(node, method, pathAndQuery, headers, body), fanOutExecutor))
+                .collect(Collectors.toList());
+        return responses.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    /**
+     * Iterates over every node's offers merged in id order, which is each node's own order, reading them from each
+     * node a page at a time, so listing every offer holds a page per node rather than every node's offers. An offer
+     * on two nodes because it is moving between them is returned once. The first pages are read before this returns.
+     */
+    public Iterator<Offer> iterateOffers() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(OffersController.APPLICATION_SMILE));
+        List<String> nodes = getNodes();
+        List<ResponseEntity<byte[]>> firstPages = fanOut(nodes, HttpMethod.GET, listingPage(null), headers, null);
+        PriorityQueue<NodeOffers> nodeOffers = new PriorityQueue<>(Comparator.comparing(offers -> offers.headKey));
+        for (int i = 0; i < nodes.size(); i++) {
+            NodeOffers offers = new NodeOffers(nodes.get(i), headers);
+            offers.read(firstPages.get(i));
+            if (offers.advance()) {
+                nodeOffers.add(offers);
+            }
+        }
+        return new AbstractIterator<Offer>() {
+            private String lastId;
+
+            @Override
+            protected Offer computeNext() {
+                while (!nodeOffers.isEmpty()) {
+                    NodeOffers offers = nodeOffers.poll();
+                    Offer offer = offers.head;
+                    if (offers.advance()) {
+                        nodeOffers.add(offers);
+                    }
+                    if (!offer.getId().equals(lastId)) {
+                        lastId = offer.getId();
+                        return offer;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * Moves every offer this node holds but no longer owns to its owner, a batch at a time, and returns how many it
+     * moved. Each batch is dropped here only once its owner has stored it.
+     */
+    public int rebalance(OffersRepository offersRepository) {
+        Map<String, List<Offer>> nodeToOffers = new HashMap<>();
+        int moved = 0;
+        Iterator<Offer> offers = offersRepository.iterateOffers();
+        while (offers.hasNext()) {
+            Offer offer = offers.next();
+            String node = nodeFor(offer.getId());
+            if (!self.equals(node)) {
+                List<Offer> batch = nodeToOffers.computeIfAbsent(node, key -> new ArrayList<>());
+                batch.add(offer);
+                if (batch.size() == MIGRATION_BATCH_SIZE) {
+                    moved += migrate(offersRepository, node, batch);
+                    batch.clear();
+                }
+            }
+        }
+        for (Map.Entry<String, List<Offer>> batch : nodeToOffers.entrySet()) {
+            moved += migrate(offersRepository, batch.getKey(), batch.getValue());
+        }
+        LOG.info("Moved {} offers to other nodes", moved);
+        return moved;
+    }
+
+    @PreDestroy
+    public void close() {
+        fanOutExecutor.shutdown();
+    }
+
+    private int migrate(OffersRepository offersRepository, String node, List<Offer> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(OffersController.APPLICATION_SMILE);
+        byte[] body;
+        try {
+            body = smileMapper.writeValueAsBytes(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ResponseEntity<byte[]> response =
+                forward(node, HttpMethod.POST, "/offers/migrations?" + LOCAL + "=true", headers, body);
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                    node + " refused offers with " + response.getStatusCode());
+        }
+        return offersRepository.removeOffers(batch.stream().map(Offer::getId).collect(Collectors.toList())).size();
+    }
+
+    private static String listingPage(String cursor) {
+        return "/offers?" + LOCAL + "=true&limit=" + LISTING_PAGE_SIZE + (cursor == null ? "" : "&cursor=" + cursor);
+    }
+
+    /**
+     * One node's offers in id order, read a page at a time.
+     */
+    private final class NodeOffers {
+        private final String node;
+        private final HttpHeaders headers;
+        private Iterator<Offer> page = Collections.emptyIterator();
+        private String cursor;
+        private boolean lastPage;
+        private Offer head;
+        private OfferKey headKey;
+
+        private NodeOffers(String node, HttpHeaders headers) {
+            this.node = node;
+            this.headers = headers;
+        }
+
+        /**
+         * Moves on to the node's next offer, reading its next page if need be, and returns whether there is one.
+         */
+        private boolean advance() {
+            if (!page.hasNext() && !lastPage) {
+                read(forward(node, HttpMethod.GET, listingPage(cursor), headers, null));
+            }
+            head = page.hasNext() ? page.next() : null;
+            headKey = head == null ? null : OfferKey.of(head.getId());
+            return head != null;
+        }
+
+        private void read(ResponseEntity<byte[]> response) {
+            if (!response.getStatusCode().is2xxSuccessful()) {
+                throw new ResponseStatusException(
+                        HttpStatus.BAD_GATEWAY, node + " answered " + response.getStatusCode());
+            }
+            List<Offer> offers;
+            try {
+                offers = smileMapper.readValue(response.getBody(), OFFER_LIST);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Nodes only link to a next page when they have offers after this one.
+            lastPage = !response.getHeaders().containsKey(HttpHeaders.LINK);
+            cursor = offers.isEmpty() ? cursor : offers.get(offers.size() - 1).getId();
+            page = offers.iterator();
+        }
+    }
+
+    private static final class PassThroughErrorHandler implements ResponseErrorHandler {
+        @Override
+        public boolean hasError(ClientHttpResponse response) {
+            return false;
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) {
+        }
+    }
+}
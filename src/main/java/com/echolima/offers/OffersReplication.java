@@ -0,0 +1,275 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Keeps this node's offers a copy of a leader's by following its change feed: a long poll for the next batch of
+ * changes after the last one applied, which returns as soon as the leader makes any. A new replica, or one the feed
+ * can no longer resume because it fell too far behind or the leader restarted, reloads every offer from the leader's
+ * listing first. Changes are applied through the repository, so listeners such as the journal keep up too, and a
+ * promoted replica takes writes with every offer already in memory.
+ *
+ * <p>Sequences are the leader's, and a replica that has applied a sequence has every change up to it, so a client can
+ * read its own writes from a replica by waiting for the sequence its write returned. Changes and offers are read from
+ * the leader in Smile.
+ */
+public class OffersReplication {
+    private static final Logger LOG = LoggerFactory.getLogger(OffersReplication.class);
+    private static final long RETRY_MILLIS = 1000;
+    private static final TypeReference<List<OfferChange>> CHANGE_LIST = new TypeReference<List<OfferChange>>() {};
+
+    private final String leader;
+    private final OffersRepository offersRepository;
+    private final ObjectMapper smileMapper;
+    private final RestTemplate restTemplate;
+    private final int batchSize;
+    private final int waitSeconds;
+    private final Thread follower;
+
+    // Written under the lock, so a promotion cannot land in the middle of applying a batch.
+    private final Object lock = new Object();
+    private volatile long appliedSequence;
+    private volatile long leaderSequence;
+    private volatile long caughtUpNanos = System.nanoTime();
+    private volatile boolean promoted;
+
+    // Only touched by the follower thread.
+    private String changeFeedId;
+
+    public OffersReplication(
+            String leader,
+            OffersRepository offersRepository,
+            ObjectMapper smileMapper,
+            RestTemplate restTemplate,
+            int batchSize,
+            int waitSeconds) {
+        checkArgument(leader != null && !leader.isEmpty(), "leader cannot be null or empty");
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        checkArgument(waitSeconds > 0 && waitSeconds <= OffersController.MAX_WAIT_SECONDS,
+                "waitSeconds must be between 1 and %s", OffersController.MAX_WAIT_SECONDS);
+        this.leader = leader;
+        this.offersRepository = offersRepository;
+        this.smileMapper = smileMapper;
+        this.restTemplate = restTemplate;
+        this.restTemplate.setErrorHandler(new GoneIsNotAnError());
+        this.batchSize = batchSize;
+        this.waitSeconds = waitSeconds;
+        this.follower = new Thread(this::follow, "offers-replication");
+        this.follower.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        follower.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        follower.interrupt();
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /**
+     * Stops applying the leader's changes. A batch being applied is finished first.
+     */
+    public void promote() {
+        synchronized (lock) {
+            promoted = true;
+            lock.notifyAll();
+        }
+        follower.interrupt();
+        LOG.info("Promoted at sequence {} of {}, no longer following {}", appliedSequence, leaderSequence, leader);
+    }
+
+    /**
+     * Waits until every change up to the sequence has been applied, or this replica was promoted, and returns whether
+     * it happened within the timeout.
+     */
+    public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (lock) {
+            while (!promoted && appliedSequence < sequence) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                lock.wait(remainingMillis);
+            }
+            return true;
+        }
+    }
+
+    public long lagChanges() {
+        return Math.max(0, leaderSequence - appliedSequence);
+    }
+
+    public double lagSeconds() {
+        return lagChanges() == 0 ? 0 : (System.nanoTime() - caughtUpNanos) / 1e9;
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("leader", leader);
+        status.put("promoted", promoted);
+        status.put("appliedSequence", appliedSequence);
+        status.put("leaderSequence", leaderSequence);
+        status.put("lagSeconds", lagSeconds());
+        return status;
+    }
+
+    private void follow() {
+        while (!promoted && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (changeFeedId == null) {
+                    reload();
+                } else {
+                    pollChanges();
+                }
+            } catch (RuntimeException | IOException e) {
+                if (promoted) {
+                    return;
+                }
+                LOG.warn("Could not replicate from {}, retrying in {} ms", leader, RETRY_MILLIS, e);
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void pollChanges() throws IOException {
+        ResponseEntity<byte[]> response = changesAfter(appliedSequence, waitSeconds);
+        if (response.getStatusCode() == HttpStatus.GONE || !changeFeedId.equals(feedId(response))) {
+            LOG.info("The change feed of {} cannot resume from sequence {}, reloading", leader, appliedSequence);
+            changeFeedId = null;
+            return;
+        }
+        List<OfferChange> changes = smileMapper.readValue(response.getBody(), CHANGE_LIST);
+        long sequence = changes.isEmpty() ? appliedSequence : changes.get(changes.size() - 1).getSequence();
+        apply(changes, sequence, latestSequence(response));
+    }
+
+    /**
+     * Notes the leader's latest sequence before listing its offers, so resuming from it after the listing may repeat
+     * changes the listing already has, which is harmless, but cannot miss one. Offers the leader no longer has are
+     * removed here.
+     */
+    private void reload() throws IOException {
+        ResponseEntity<byte[]> position = changesAfter(0, 0);
+        String feedId = feedId(position);
+        long sequence = latestSequence(position);
+        Set<String> leaderIds = new HashSet<>();
+        restTemplate.execute(leader + "/offers", HttpMethod.GET,
+                request -> request.getHeaders()
+                        .setAccept(Collections.singletonList(OffersController.APPLICATION_SMILE)),
+                response -> {
+                    try (MappingIterator<Offer> offers =
+                                 smileMapper.readerFor(Offer.class).readValues(response.getBody())) {
+                        List<OfferChange> batch = new ArrayList<>(batchSize);
+                        while (offers.hasNextValue()) {
+                            Offer offer = offers.nextValue();
+                            leaderIds.add(offer.getId());
+                            batch.add(new OfferChange(sequence, OfferChange.Type.CREATED, offer));
+                            if (batch.size() == batchSize) {
+                                apply(batch, appliedSequence, leaderSequence);
+                                batch.clear();
+                            }
+                        }
+                        apply(batch, appliedSequence, leaderSequence);
+                    }
+                    return null;
+                });
+        List<OfferChange> removals = new ArrayList<>();
+        Iterator<Offer> offers = offersRepository.iterateOffers();
+        while (offers.hasNext()) {
+            Offer offer = offers.next();
+            if (!leaderIds.contains(offer.getId())) {
+                removals.add(new OfferChange(sequence, OfferChange.Type.REMOVED, offer));
+            }
+        }
+        apply(removals, sequence, sequence);
+        changeFeedId = feedId;
+        LOG.info("Loaded {} offers from {} as of sequence {}", leaderIds.size(), leader, sequence);
+    }
+
+    private void apply(List<OfferChange> changes, long sequence, long latestSequence) {
+        synchronized (lock) {
+            if (promoted) {
+                return;
+            }
+            if (!changes.isEmpty()) {
+                offersRepository.applyChanges(changes);
+            }
+            appliedSequence = sequence;
+            leaderSequence = latestSequence;
+            if (sequence >= latestSequence) {
+                caughtUpNanos = System.nanoTime();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for changes when waitSeconds is positive, and with none only asks where the feed is.
+     */
+    private ResponseEntity<byte[]> changesAfter(long sequence, int waitSeconds) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(OffersController.APPLICATION_SMILE));
+        return restTemplate.exchange(leader + "/offers/changes?after={after}&limit={limit}&waitSeconds={wait}",
+                HttpMethod.GET, new HttpEntity<>(headers), byte[].class,
+                sequence, waitSeconds == 0 ? 1 : batchSize, waitSeconds);
+    }
+
+    private static String feedId(ResponseEntity<byte[]> response) {
+        return response.getHeaders().getFirst(OffersController.CHANGE_FEED_ID);
+    }
+
+    private static long latestSequence(ResponseEntity<byte[]> response) {
+        return Long.parseLong(response.getHeaders().getFirst(OffersController.LATEST_SEQUENCE));
+    }
+
+    /**
+     * The feed answers 410 Gone when it cannot resume from a sequence, which only means reloading.
+     */
+    private static final class GoneIsNotAnError extends DefaultResponseErrorHandler {
+        @Override
+        protected boolean hasError(HttpStatus statusCode) {
+            return statusCode != HttpStatus.GONE && super.hasError(statusCode);
+        }
+    }
+}
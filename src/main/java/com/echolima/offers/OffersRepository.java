@@ -2,57 +2,542 @@ package com.echolima.offers;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Streams;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 public class OffersRepository {
-    private final Map<String, Offer> idToOfferMap;
+    private final OfferStore offerStore;
+    private final OffersIndex offersIndex = new OffersIndex();
+    private final OfferSearchIndex searchIndex = new OfferSearchIndex();
     private final TimeService timeService;
+    private final OffersMetrics metrics;
+    private final List<OfferEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder generation = new LongAdder();
+    private volatile LocalDate sweptBefore = LocalDate.MIN;
+    private final Map<String, LocalDate> cancelledSince = new ConcurrentHashMap<>();
+    private volatile ColdOfferStore coldStore;
+
+    public OffersRepository(TimeService timeService, OfferStore offerStore) {
+        this(timeService, offerStore, OffersMetrics.NONE);
+    }
 
     @Autowired
-    public OffersRepository(TimeService timeService, Map<String, Offer> idToOfferMap) {
-        this.idToOfferMap = idToOfferMap;
+    public OffersRepository(TimeService timeService, OfferStore offerStore, OffersMetrics metrics) {
+        this.offerStore = offerStore;
         this.timeService = timeService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Lets {@link #archiveOffers} move inactive offers out of memory into the cold store.
+     */
+    public void setColdStore(ColdOfferStore coldStore) {
+        this.coldStore = coldStore;
+    }
+
+    public void addListener(OfferEventListener listener) {
+        checkArgument(listener != null, "listener cannot be null");
+        listeners.add(listener);
     }
 
     public void createOffer(Offer offer) {
         checkArgument(offer != null, "Offer cannot be null");
-        idToOfferMap.put(offer.getId(), offer);
+        long start = System.nanoTime();
+        create(Collections.singletonList(offer), () -> {
+            Offer storedOffer = store(offer);
+            searchIndex.add(storedOffer);
+            expireIfSwept(storedOffer);
+            generation.increment();
+        });
+        metrics.record(OffersMetrics.Operation.CREATE, start);
+    }
+
+    /**
+     * Creates all the offers, taking the search index lock once for the whole batch rather than once per offer.
+     */
+    public void createOffers(Collection<Offer> offers) {
+        checkArgument(offers != null, "offers cannot be null");
+        offers.forEach(offer -> checkArgument(offer != null, "Offer cannot be null"));
+        long start = System.nanoTime();
+        create(offers, () -> {
+            List<Offer> storedOffers = offers.stream().map(this::store).collect(Collectors.toList());
+            searchIndex.addAll(storedOffers.stream()
+                    .filter(offer -> !offer.isCancelled())
+                    .collect(Collectors.toList()));
+            storedOffers.forEach(this::expireIfSwept);
+            generation.increment();
+        });
+        metrics.record(OffersMetrics.Operation.CREATE_BATCH, start);
+    }
+
+    /**
+     * Loads what a journal replayed: the offers to keep in memory, the ids of the archived offers it still has, so the
+     * cold store drops any others, and the days cancelled offers were cancelled, which their retention counts from.
+     */
+    public void restoreOffers(
+            Collection<Offer> offers, Set<String> archivedIds, Map<String, LocalDate> idToCancelledSince) {
+        checkArgument(archivedIds != null, "archivedIds cannot be null");
+        checkArgument(idToCancelledSince != null, "idToCancelledSince cannot be null");
+        ColdOfferStore currentColdStore = coldStore;
+        if (currentColdStore != null) {
+            currentColdStore.retainAll(archivedIds);
+        }
+        offers.stream()
+                .filter(offer -> offer.isCancelled() && idToCancelledSince.containsKey(offer.getId()))
+                .forEach(offer -> cancelledSince.put(offer.getId(), idToCancelledSince.get(offer.getId())));
+        createOffers(offers);
     }
 
+    public List<Offer> getOffers() {
+        return Streams.stream(offerStore.snapshot().iterator()).map(this::expire).collect(Collectors.toList());
+    }
+
+    /**
+     * Whether the offer has been moved to the cold store.
+     */
+    public boolean isArchived(String id) {
+        ColdOfferStore currentColdStore = coldStore;
+        return currentColdStore != null && currentColdStore.contains(id);
+    }
+
+    /**
+     * The day the offer was cancelled, or this first saw it cancelled, while it is cancelled and still in memory.
+     */
+    public Optional<LocalDate> cancelledSince(String id) {
+        return Optional.ofNullable(cancelledSince.get(id));
+    }
+
+    /**
+     * Finds archived offers too, which listings and queries no longer see.
+     */
     public Optional<Offer> getOffer(String id) {
         checkArgument(!Strings.isNullOrEmpty(id), "id cannot be empty or null");
-        return Optional.ofNullable(idToOfferMap.get(id)).map(this::expire);
+        long start = System.nanoTime();
+        Offer offer = offerStore.get(id);
+        if (offer == null && coldStore != null) {
+            offer = coldStore.get(id);
+        }
+        Optional<Offer> expiredOffer = offer == null ? Optional.empty() : Optional.of(expire(offer));
+        metrics.record(OffersMetrics.Operation.GET, start);
+        return expiredOffer;
     }
 
-    public List<Offer> getOffers() {
-        return idToOfferMap.values().stream().map(this::expire).collect(Collectors.toList());
+    /**
+     * Iterates over a snapshot of the store rather than a copy, so callers can write out any number of offers in
+     * constant memory, and see them as they were when this was called if the store can take snapshots.
+     */
+    public Iterator<Offer> iterateOffers() {
+        return Iterators.transform(offerStore.snapshot().iterator(), this::expire);
+    }
+
+    /**
+     * Iterates over the offers archived to the cold store, which {@link #iterateOffers()} leaves out.
+     */
+    public Iterator<Offer> iterateArchivedOffers() {
+        ColdOfferStore currentColdStore = coldStore;
+        return currentColdStore == null ? Collections.emptyIterator() : currentColdStore.iterator();
+    }
+
+    /**
+     * Returns up to limit offers in the store's order, starting after the cursor, which is the id of the last offer of
+     * the previous page. Offers created while paging either land after the cursor or are skipped, but never shift
+     * pages. Returns nothing if the store cannot place the cursor, which compact storage cannot once its offer is gone.
+     */
+    public Optional<OfferPage> getOffers(String cursor, int limit) {
+        checkArgument(limit > 0, "limit must be positive");
+        long start = System.nanoTime();
+        OfferStore snapshot = offerStore.snapshot();
+        Iterator<Offer> offers = Strings.isNullOrEmpty(cursor) ? snapshot.iterator() : snapshot.iteratorAfter(cursor);
+        if (offers == null) {
+            return Optional.empty();
+        }
+        List<Offer> page = Streams.stream(offers).limit(limit).map(this::expire).collect(Collectors.toList());
+        String nextCursor = page.size() == limit && snapshot.hasAfter(page.get(limit - 1).getId())
+                ? page.get(limit - 1).getId()
+                : null;
+        metrics.record(OffersMetrics.Operation.PAGE, start);
+        return Optional.of(new OfferPage(page, nextCursor));
+    }
+
+    /**
+     * Finds the offers matching the query through the narrowest secondary index it can use, so the cost follows the
+     * size of the index range rather than the catalogue. Only queries without any filter fall back to a full scan.
+     */
+    public Stream<Offer> findOffers(OfferQuery query) {
+        checkArgument(query != null, "query cannot be null");
+        if (query.getStatus().isPresent()) {
+            expireOffers();
+        }
+        OfferStore snapshot = offerStore.snapshot();
+        Stream<Offer> candidates = offersIndex.candidateIds(query)
+                .map(ids -> ids.distinct().map(snapshot::get).filter(Objects::nonNull))
+                .orElseGet(() -> Streams.stream(snapshot.iterator()));
+        return candidates.map(this::expire).filter(query::matches);
+    }
+
+    /**
+     * Searches offer descriptions, see {@link OfferSearchIndex#search(String, int)}. Cancelled offers are not returned.
+     */
+    public List<Offer> searchOffers(String query, int limit) {
+        checkArgument(!Strings.isNullOrEmpty(query), "query cannot be null or empty");
+        long start = System.nanoTime();
+        List<Offer> offers = searchIndex.search(query, limit).stream()
+                .map(offerStore::get)
+                .filter(offer -> offer != null && !offer.isCancelled())
+                .map(this::expire)
+                .collect(Collectors.toList());
+        metrics.record(OffersMetrics.Operation.SEARCH, start);
+        return offers;
+    }
+
+    /**
+     * A number that grows whenever a write may have changed what the repository returns, so anything derived from its
+     * offers is still current as long as this has not moved since it was read, before deriving it, and the day has
+     * not changed either. Reads expire offers whose date has passed, which changes what they return at midnight
+     * without a write.
+     */
+    public long generation() {
+        return generation.sum();
+    }
+
+    public int countOffers(OfferStatus status) {
+        return offersIndex.count(status);
+    }
+
+    /**
+     * Count and price totals per currency and status of the offers listings see, kept up to date by every write
+     * instead of scanned for. Offers that have expired but that the sweeper has not reached yet still count as
+     * active.
+     */
+    public List<OfferTotals> getStatistics() {
+        return offersIndex.totals();
     }
 
     @VisibleForTesting
     void deleteAll() {
-        idToOfferMap.clear();
+        offerStore.clear();
+        offersIndex.clear();
+        searchIndex.clear();
+        cancelledSince.clear();
+        if (coldStore != null) {
+            coldStore.clear();
+        }
+        generation.increment();
     }
 
-    public void cancel(String id) {
+    /**
+     * Cancels the offer if it is still active, and returns whether there is an offer with the id at all, so callers
+     * need not look it up first.
+     */
+    public boolean cancel(String id) {
         checkArgument(!Strings.isNullOrEmpty(id), "id cannot be null or empty");
-        Optional<Offer> offerOptional = getOffer(id);
-        if (offerOptional.isPresent() && !offerOptional.get().isExpired()) {
-            idToOfferMap.put(id, Offer.builder(offerOptional.get())
-                    .withCancelled(true)
-                    .build());
+        long start = System.nanoTime();
+        boolean[] cancelled = new boolean[1];
+        Offer offer = offerStore.computeIfPresent(id, currentOffer -> cancelIfActive(currentOffer, cancelled));
+        if (cancelled[0]) {
+            cancelledSince.put(id, timeService.now());
+            offersIndex.updateStatus(offer);
+            searchIndex.remove(id);
+            generation.increment();
+            listeners.forEach(listener -> listener.offerCancelled(offer));
+        }
+        metrics.record(OffersMetrics.Operation.CANCEL, start);
+        // Archived offers are all inactive, so there is nothing to cancel.
+        return offer != null || (coldStore != null && coldStore.contains(id));
+    }
+
+    /**
+     * Cancels every active offer with one of the ids, and returns how many it cancelled.
+     */
+    public int cancelOffers(Collection<String> ids) {
+        checkArgument(ids != null, "ids cannot be null");
+        return cancelAll(ids.stream().filter(id -> !Strings.isNullOrEmpty(id)), offer -> true);
+    }
+
+    /**
+     * Cancels every active offer matching the query, found through the narrowest index it can use, or the index of
+     * active offers when it has no indexed filter. Returns how many it cancelled.
+     */
+    public int cancelOffers(OfferQuery query) {
+        checkArgument(query != null, "query cannot be null");
+        Stream<String> candidateIds = offersIndex.candidateIds(query)
+                .orElseGet(() -> offersIndex.ids(OfferStatus.ACTIVE));
+        return cancelAll(candidateIds, query::matches);
+    }
+
+    /**
+     * Takes the offers out of the repository and its indexes, and returns those it had.
+     */
+    public List<Offer> removeOffers(Collection<String> ids) {
+        checkArgument(ids != null, "ids cannot be null");
+        List<Offer> removedOffers = ids.stream()
+                .map(this::removeFromStores)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (!removedOffers.isEmpty()) {
+            removedOffers.forEach(offersIndex::remove);
+            searchIndex.removeAll(removedOffers.stream().map(Offer::getId).collect(Collectors.toList()));
+            generation.increment();
+            listeners.forEach(listener -> listener.offersRemoved(removedOffers));
+        }
+        return removedOffers;
+    }
+
+    /**
+     * Applies changes another repository made, such as the leader this one replicates, in their order. Each change
+     * carries the offer as it was afterwards, which is stored as it is, so applying a change twice does no harm.
+     * Listeners hear of the changes as though they were made here, a run of creates or cancels at a time.
+     */
+    public void applyChanges(List<OfferChange> changes) {
+        checkArgument(changes != null, "changes cannot be null");
+        long start = System.nanoTime();
+        List<Offer> run = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            run.add(changes.get(i).getOffer());
+            OfferChange.Type type = changes.get(i).getType();
+            if (i + 1 == changes.size() || changes.get(i + 1).getType() != type) {
+                applyRun(type, run);
+                run = new ArrayList<>();
+            }
+        }
+        generation.increment();
+        metrics.record(OffersMetrics.Operation.REPLICATE, start);
+    }
+
+    /**
+     * Moves offers that became inactive before the date into the cold store, and then, while more than maxHotOffers
+     * remain in memory, the longest inactive of the rest. Expired offers became inactive when their expiry date
+     * passed, and cancelled ones when they were cancelled, or when this first saw them cancelled if it did not see that
+     * happen. Returns how many offers moved.
+     */
+    public int archiveOffers(LocalDate inactiveBefore, long maxHotOffers) {
+        ColdOfferStore currentColdStore = coldStore;
+        checkState(currentColdStore != null, "there is no cold store to archive to");
+        long start = System.nanoTime();
+        LocalDate today = timeService.now();
+        List<Offer> inactiveOffers = Stream.concat(
+                offersIndex.ids(OfferStatus.CANCELLED), offersIndex.ids(OfferStatus.EXPIRED))
+                .map(offerStore::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        Map<String, LocalDate> idToInactiveSince = new HashMap<>();
+        inactiveOffers.forEach(offer -> idToInactiveSince.put(offer.getId(), offer.isCancelled()
+                ? cancelledSince.computeIfAbsent(offer.getId(), id -> today)
+                : offer.getExpiryDate().plusDays(1)));
+        inactiveOffers.sort(Comparator.comparing(offer -> idToInactiveSince.get(offer.getId())));
+        long excess = Arrays.stream(OfferStatus.values()).mapToLong(offersIndex::count).sum() - maxHotOffers;
+        List<Offer> archivedOffers = inactiveOffers.stream()
+                .filter(offer -> idToInactiveSince.get(offer.getId()).isBefore(inactiveBefore))
+                .collect(Collectors.toList());
+        inactiveOffers.stream()
+                .skip(archivedOffers.size())
+                .limit(Math.max(0, excess - archivedOffers.size()))
+                .forEach(archivedOffers::add);
+        if (!archivedOffers.isEmpty()) {
+            // Stored cold first, so reads find the offer in one of the stores throughout.
+            currentColdStore.putAll(archivedOffers.stream().map(this::expire).collect(Collectors.toList()));
+            for (Offer offer : archivedOffers) {
+                Offer removedOffer = offerStore.remove(offer.getId());
+                if (removedOffer != null && !removedOffer.equals(offer)) {
+                    currentColdStore.putAll(Collections.singletonList(expire(removedOffer)));
+                }
+                offersIndex.remove(offer);
+                cancelledSince.remove(offer.getId());
+            }
+            searchIndex.removeAll(archivedOffers.stream().map(Offer::getId).collect(Collectors.toList()));
+            generation.increment();
+            metrics.archived(archivedOffers.size());
+        }
+        metrics.record(OffersMetrics.Operation.ARCHIVE, start);
+        return archivedOffers.size();
+    }
+
+    /**
+     * Flips every offer whose expiry date has passed to expired, once, so reads can return the stored offer as is.
+     * Reads still expire offers the sweeper has not reached yet, which only happens just after midnight.
+     */
+    @Scheduled(fixedRateString = "${offers.expiry.sweep-millis:60000}")
+    public void expireOffers() {
+        LocalDate today = timeService.now();
+        LocalDate from = sweptBefore;
+        if (from.isBefore(today)) {
+            long start = System.nanoTime();
+            offersIndex.idsExpiringBetween(from, today).forEach(this::expireOffer);
+            sweptBefore = today;
+            metrics.record(OffersMetrics.Operation.EXPIRE_SWEEP, start);
+        }
+    }
+
+    /**
+     * Cancels the matching offers in one pass over the ids, then updates the search index and notifies listeners once
+     * for all of them, rather than once per offer.
+     */
+    private int cancelAll(Stream<String> ids, Predicate<Offer> filter) {
+        long start = System.nanoTime();
+        LocalDate today = timeService.now();
+        List<Offer> cancelledOffers = new ArrayList<>();
+        ids.forEach(id -> {
+            boolean[] cancelled = new boolean[1];
+            Offer offer = offerStore.computeIfPresent(id, currentOffer -> filter.test(currentOffer)
+                    ? cancelIfActive(currentOffer, cancelled)
+                    : currentOffer);
+            if (cancelled[0]) {
+                cancelledSince.put(id, today);
+                offersIndex.updateStatus(offer);
+                cancelledOffers.add(offer);
+            }
+        });
+        if (!cancelledOffers.isEmpty()) {
+            searchIndex.removeAll(cancelledOffers.stream().map(Offer::getId).collect(Collectors.toList()));
+            generation.increment();
+            listeners.forEach(listener -> listener.offersCancelled(cancelledOffers));
+        }
+        metrics.record(OffersMetrics.Operation.CANCEL_BULK, start);
+        return cancelledOffers.size();
+    }
+
+    private void applyRun(OfferChange.Type type, List<Offer> offers) {
+        switch (type) {
+            case CREATED:
+                create(offers, () -> offers.forEach(this::replace));
+                break;
+            case CANCELLED:
+                LocalDate today = timeService.now();
+                offers.forEach(offer -> cancelledSince.putIfAbsent(offer.getId(), today));
+                offers.forEach(this::replace);
+                listeners.forEach(listener -> listener.offersCancelled(offers));
+                break;
+            case EXPIRED:
+                offers.forEach(this::replace);
+                offers.forEach(offer -> listeners.forEach(listener -> listener.offerExpired(offer)));
+                break;
+            default:
+                removeOffers(offers.stream().map(Offer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Stores the offers between telling listeners they are being created and that they were, so listeners that have
+     * to record a creation before it is visible can, and the rest only hear of offers reads will find.
+     */
+    private void create(Collection<Offer> offers, Runnable store) {
+        List<OfferEventListener> toldListeners = new ArrayList<>(listeners.size());
+        boolean stored = false;
+        try {
+            for (OfferEventListener listener : listeners) {
+                toldListeners.add(listener);
+                listener.offersCreating(offers);
+            }
+            store.run();
+            stored = true;
+        } finally {
+            for (OfferEventListener listener : toldListeners) {
+                if (stored) {
+                    listener.offersCreated(offers);
+                } else {
+                    listener.offersNotCreated(offers);
+                }
+            }
+        }
+    }
+
+    private void replace(Offer offer) {
+        if (coldStore != null) {
+            coldStore.remove(offer.getId());
+        }
+        Offer previous = offerStore.get(offer.getId());
+        offerStore.put(offer);
+        if (previous != null) {
+            offersIndex.remove(previous);
+        }
+        offersIndex.add(offer);
+        if (offer.isCancelled()) {
+            searchIndex.remove(offer.getId());
+        } else if (previous == null) {
+            searchIndex.add(offer);
+        }
+    }
+
+    /**
+     * The store may apply this more than once, but the last application is the one that was stored, so cancelled
+     * says whether the stored offer is a new cancellation.
+     */
+    private Offer cancelIfActive(Offer currentOffer, boolean[] cancelled) {
+        cancelled[0] = !currentOffer.isCancelled() && !currentOffer.isExpired() && !hasPassed(currentOffer);
+        return cancelled[0] ? Offer.builder(currentOffer).withCancelled(true).build() : currentOffer;
+    }
+
+    private Offer removeFromStores(String id) {
+        Offer offer = offerStore.remove(id);
+        cancelledSince.remove(id);
+        Offer archivedOffer = coldStore == null ? null : coldStore.remove(id);
+        return offer != null ? offer : archivedOffer;
+    }
+
+    private Offer store(Offer offer) {
+        Offer storedOffer = expire(offer);
+        offerStore.put(storedOffer);
+        offersIndex.add(storedOffer);
+        return storedOffer;
+    }
+
+    private void expireIfSwept(Offer storedOffer) {
+        if (!storedOffer.isExpired() && hasPassed(storedOffer)) {
+            // The sweeper may have passed this expiry date between the put and indexing it.
+            expireOffer(storedOffer.getId());
+        }
+    }
+
+    private void expireOffer(String id) {
+        boolean[] expired = new boolean[1];
+        Offer offer = offerStore.computeIfPresent(id, currentOffer -> {
+            Offer expiredOffer = expire(currentOffer);
+            expired[0] = expiredOffer != currentOffer;
+            return expiredOffer;
+        });
+        if (offer != null) {
+            offersIndex.updateStatus(offer);
+        }
+        if (expired[0]) {
+            generation.increment();
+            listeners.forEach(listener -> listener.offerExpired(offer));
         }
     }
 
     private Offer expire(Offer offer) {
-        return timeService.now().isAfter(offer.getExpiryDate())
-                ? Offer.builder(offer).withExpired(true).build()
-                : offer;
+        if (offer.isExpired() || !hasPassed(offer)) {
+            return offer;
+        }
+        metrics.expiredCopy();
+        return Offer.builder(offer).withExpired(true).build();
+    }
+
+    private boolean hasPassed(Offer offer) {
+        return timeService.now().isAfter(offer.getExpiryDate());
     }
 }
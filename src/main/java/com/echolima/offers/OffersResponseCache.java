@@ -0,0 +1,171 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Offers and pages of the listing as already serialized JSON or Smile, each with an ETag, so reads of what has not
+ * changed do no Jackson work, and conditional reads of it none at all. An offer's bytes are reused only while the
+ * repository still returns an equal offer, and a page's only while the repository's generation and the day have not
+ * moved, so neither can be served stale. Cancellations, expiries and removals evict the offer straight away rather than
+ * leaving it to be found stale.
+ */
+public class OffersResponseCache implements OfferEventListener {
+    private final ObjectMapper objectMapper;
+    private final ObjectMapper smileMapper;
+    private final Map<OfferFormat, Cache<String, SerializedOffer>> formatToOffers = Maps.newEnumMap(OfferFormat.class);
+    private final Cache<PageKey, SerializedPage> pages;
+
+    public OffersResponseCache(ObjectMapper objectMapper, ObjectMapper smileMapper, long maxOffers, long maxPages) {
+        this.objectMapper = objectMapper;
+        this.smileMapper = smileMapper;
+        formatToOffers.put(OfferFormat.JSON, CacheBuilder.newBuilder().maximumSize(maxOffers).build());
+        formatToOffers.put(OfferFormat.SMILE, CacheBuilder.newBuilder().maximumSize(maxOffers).build());
+        this.pages = CacheBuilder.newBuilder().maximumSize(maxPages).build();
+    }
+
+    public SerializedOffer serialize(Offer offer, OfferFormat format) throws IOException {
+        Cache<String, SerializedOffer> offers = formatToOffers.get(format.single());
+        SerializedOffer cached = offers.getIfPresent(offer.getId());
+        if (cached != null && cached.offer.equals(offer)) {
+            return cached;
+        }
+        byte[] bytes = (format.isBinary() ? smileMapper : objectMapper).writeValueAsBytes(offer);
+        SerializedOffer serialized = new SerializedOffer(offer, bytes, etag(bytes));
+        offers.put(offer.getId(), serialized);
+        return serialized;
+    }
+
+    public Optional<SerializedPage> page(
+            String cursor, int limit, OfferFormat format, LocalDate day, long generation) {
+        SerializedPage page = pages.getIfPresent(new PageKey(cursor, limit, format, day));
+        return page != null && page.generation == generation ? Optional.of(page) : Optional.empty();
+    }
+
+    /**
+     * Caches a page, which must have been read after the generation and on the day it is cached under.
+     */
+    public SerializedPage putPage(
+            String cursor, int limit, OfferFormat format, LocalDate day, long generation, byte[] bytes,
+            String nextCursor) {
+        SerializedPage page = new SerializedPage(generation, bytes, nextCursor);
+        pages.put(new PageKey(cursor, limit, format, day), page);
+        return page;
+    }
+
+    /**
+     * The ETag of a listing, which stays the same for as long as the repository's generation and the day do. Offers
+     * are read as expired once their date has passed, so a listing can change at midnight without a write.
+     */
+    public static String listingEtag(LocalDate day, long generation, OfferFormat format) {
+        return "\"" + Long.toHexString(day.toEpochDay()) + "-" + Long.toHexString(generation) + format.etagSuffix()
+                + "\"";
+    }
+
+    @Override
+    public void offerCreated(Offer offer) {
+    }
+
+    @Override
+    public void offerCancelled(Offer offer) {
+        invalidate(offer);
+    }
+
+    @Override
+    public void offerExpired(Offer offer) {
+        invalidate(offer);
+    }
+
+    @Override
+    public void offersRemoved(Collection<Offer> removedOffers) {
+        removedOffers.forEach(this::invalidate);
+    }
+
+    private void invalidate(Offer offer) {
+        formatToOffers.values().forEach(offers -> offers.invalidate(offer.getId()));
+    }
+
+    private static String etag(byte[] bytes) {
+        return "\"" + Hashing.murmur3_128().hashBytes(bytes).toString().substring(0, 16) + "\"";
+    }
+
+    public static final class SerializedOffer {
+        private final Offer offer;
+        private final byte[] bytes;
+        private final String etag;
+
+        private SerializedOffer(Offer offer, byte[] bytes, String etag) {
+            this.offer = offer;
+            this.bytes = bytes;
+            this.etag = etag;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    public static final class SerializedPage {
+        private final long generation;
+        private final byte[] bytes;
+        private final String nextCursor;
+
+        private SerializedPage(long generation, byte[] bytes, String nextCursor) {
+            this.generation = generation;
+            this.bytes = bytes;
+            this.nextCursor = nextCursor;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public Optional<String> getNextCursor() {
+            return Optional.ofNullable(nextCursor);
+        }
+    }
+
+    private static final class PageKey {
+        private final String cursor;
+        private final int limit;
+        private final OfferFormat format;
+        private final LocalDate day;
+
+        private PageKey(String cursor, int limit, OfferFormat format, LocalDate day) {
+            this.cursor = cursor;
+            this.limit = limit;
+            this.format = format;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PageKey pageKey = (PageKey) o;
+            return limit == pageKey.limit
+                    && format == pageKey.format
+                    && Objects.equal(cursor, pageKey.cursor)
+                    && day.equals(pageKey.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(cursor, limit, format, day);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.echolima.offers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Keeps active offers in memory and moves the rest to a {@link ColdOfferStore} in a directory: offers once they have
+ * been cancelled or expired for the retention, and sooner while there are more than the most hot offers allowed.
+ * Archived offers can still be read by id, but listings, queries and search no longer pass over them. The cold store
+ * is kept across restarts, so they stay out of memory after one.
+ */
+public class OffersTiering {
+    private static final Logger LOG = LoggerFactory.getLogger(OffersTiering.class);
+    private static final String COLD_STORE_FILE = "cold-offers.bin";
+
+    private final ColdOfferStore coldStore;
+    private final TimeService timeService;
+    private final int retentionDays;
+    private final long maxHotOffers;
+    private volatile OffersRepository repository;
+
+    public OffersTiering(Path directory, TimeService timeService, int retentionDays, long maxHotOffers)
+            throws IOException {
+        checkArgument(directory != null, "directory cannot be null");
+        checkArgument(retentionDays >= 0, "retentionDays cannot be negative");
+        checkArgument(maxHotOffers > 0, "maxHotOffers must be positive");
+        Files.createDirectories(directory);
+        this.coldStore = new ColdOfferStore(directory.resolve(COLD_STORE_FILE));
+        this.timeService = timeService;
+        this.retentionDays = retentionDays;
+        this.maxHotOffers = maxHotOffers;
+    }
+
+    public void attach(OffersRepository repository, OffersMetrics metrics) {
+        checkState(this.repository == null, "tiering is already attached");
+        repository.setColdStore(coldStore);
+        metrics.bind(repository, coldStore);
+        this.repository = repository;
+    }
+
+    @Scheduled(fixedRateString = "${offers.tiering.sweep-millis:60000}")
+    public void archive() {
+        OffersRepository attachedRepository = repository;
+        if (attachedRepository == null) {
+            return;
+        }
+        int archived = attachedRepository.archiveOffers(timeService.now().minusDays(retentionDays), maxHotOffers);
+        if (archived > 0) {
+            LOG.info("Moved {} inactive offers to the cold store, which now holds {}", archived, coldStore.size());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        coldStore.close();
+    }
+}
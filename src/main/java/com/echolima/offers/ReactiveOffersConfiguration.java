@@ -0,0 +1,79 @@
+package com.echolima.offers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import java.util.Collections;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.DELETE;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ * Serves the offers API from Netty without a thread per connection, when started with
+ * {@code spring.main.web-application-type=reactive}.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveOffersConfiguration {
+    /**
+     * Tomcat is on the classpath for the servlet stack, and would otherwise be picked for this one too.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    public OffersHandler offersHandler(
+            OffersRepository offersRepository,
+            TimeService timeService,
+            ObjectMapper objectMapper,
+            MappingJackson2SmileHttpMessageConverter smileConverter,
+            OffersMetrics offersMetrics,
+            OfferIdGenerator offerIdGenerator,
+            OffersResponseCache offersResponseCache,
+            IdempotencyKeys idempotencyKeys,
+            OfferChangeFeed offerChangeFeed) {
+        return new OffersHandler(offersRepository, timeService, objectMapper, smileConverter.getObjectMapper(),
+                offersMetrics, offerIdGenerator, offersResponseCache, idempotencyKeys, offerChangeFeed);
+    }
+
+    @Bean
+    public RouterFunction<ServerResponse> offersRoutes(OffersHandler offersHandler) {
+        return route(POST("/offers/batch"), offersHandler::createOffers)
+                .andRoute(POST("/offers/cancellations"), offersHandler::cancelOffers)
+                .andRoute(POST("/offers"), offersHandler::createOffer)
+                .andRoute(GET("/offers/search"), offersHandler::searchOffers)
+                .andRoute(GET("/offers/changes"), offersHandler::getChanges)
+                .andRoute(GET("/offers/stats"), offersHandler::getStatistics)
+                .andRoute(GET("/offers/{id}"), offersHandler::getOffer)
+                .andRoute(GET("/offers"), offersHandler::getOffers)
+                .andRoute(DELETE("/offers/{id}"), offersHandler::cancelOffer);
+    }
+
+    /**
+     * Reads and writes newline delimited JSON as a stream of offers, as the servlet stack does. Registered as custom
+     * codecs next to Spring Boot's JSON ones rather than in place of them.
+     */
+    @Bean
+    public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+        return configurer -> {
+            Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(objectMapper, OffersController.APPLICATION_NDJSON);
+            encoder.setStreamingMediaTypes(Collections.singletonList(OffersController.APPLICATION_NDJSON));
+            configurer.customCodecs().encoder(encoder);
+            configurer.customCodecs()
+                    .decoder(new Jackson2JsonDecoder(objectMapper, OffersController.APPLICATION_NDJSON));
+        };
+    }
+}
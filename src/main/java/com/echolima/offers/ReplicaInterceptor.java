@@ -0,0 +1,55 @@
+package com.echolima.offers;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves reads from this replica and sends writes to the leader with a 307 Temporary Redirect, which clients follow
+ * with the same method and body. A read with a Min-Sequence header waits until the replica has applied that sequence
+ * of the leader's, and is redirected to the leader if it has not within the read wait, so a client that passes the
+ * Latest-Sequence of its last write always reads it. Once the replica is promoted, it serves everything itself.
+ */
+public class ReplicaInterceptor implements HandlerInterceptor {
+    public static final String MIN_SEQUENCE = "Min-Sequence";
+
+    private final OffersReplication replication;
+    private final long readWaitMillis;
+
+    public ReplicaInterceptor(OffersReplication replication, long readWaitMillis) {
+        this.replication = replication;
+        this.readWaitMillis = readWaitMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        if (replication.isPromoted()) {
+            return true;
+        }
+        if ("GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod())) {
+            String minSequence = request.getHeader(MIN_SEQUENCE);
+            if (minSequence == null) {
+                return true;
+            }
+            long sequence;
+            try {
+                sequence = Long.parseLong(minSequence);
+            } catch (NumberFormatException e) {
+                response.sendError(HttpStatus.BAD_REQUEST.value(), MIN_SEQUENCE + " must be a number");
+                return false;
+            }
+            if (replication.awaitSequence(sequence, readWaitMillis)) {
+                return true;
+            }
+        }
+        String query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION,
+                replication.getLeader() + request.getRequestURI() + (query == null ? "" : "?" + query));
+        return false;
+    }
+}
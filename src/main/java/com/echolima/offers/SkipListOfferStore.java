@@ -0,0 +1,56 @@
+package com.echolima.offers;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Keeps offers as objects in a skip list ordered by id, keyed on {@link OfferKey}s.
+ */
+public class SkipListOfferStore implements OfferStore {
+    private final ConcurrentNavigableMap<OfferKey, Offer> idToOfferMap;
+
+    public SkipListOfferStore(ConcurrentNavigableMap<OfferKey, Offer> idToOfferMap) {
+        this.idToOfferMap = idToOfferMap;
+    }
+
+    @Override
+    public Offer get(String id) {
+        return idToOfferMap.get(OfferKey.of(id));
+    }
+
+    @Override
+    public void put(Offer offer) {
+        idToOfferMap.put(OfferKey.of(offer.getId()), offer);
+    }
+
+    @Override
+    public Offer computeIfPresent(String id, UnaryOperator<Offer> function) {
+        return idToOfferMap.computeIfPresent(OfferKey.of(id), (key, offer) -> function.apply(offer));
+    }
+
+    @Override
+    public Offer remove(String id) {
+        return idToOfferMap.remove(OfferKey.of(id));
+    }
+
+    @Override
+    public Iterator<Offer> iterator() {
+        return idToOfferMap.values().iterator();
+    }
+
+    @Override
+    public Iterator<Offer> iteratorAfter(String id) {
+        return idToOfferMap.tailMap(OfferKey.of(id), false).values().iterator();
+    }
+
+    @Override
+    public boolean hasAfter(String id) {
+        return idToOfferMap.higherKey(OfferKey.of(id)) != null;
+    }
+
+    @Override
+    public void clear() {
+        idToOfferMap.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package com.echolima.offers;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Generates version 7 style UUIDs that start with the time in milliseconds, so ids sort roughly by creation time and
+ * new offers land at the end of the skip list. The rest is the node, a slot claimed by each thread on first use and a
+ * sequence per thread, which makes ids unique without any shared state on the hot path, or any call to a shared
+ * SecureRandom. Nodes must be given distinct numbers; a slot is only reused after 65536 threads have claimed one.
+ */
+public class TimeOrderedOfferIdGenerator implements OfferIdGenerator {
+    private static final int MAX_NODE = 0xFFFF;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    private final long node;
+    private final AtomicInteger threadSlots = new AtomicInteger();
+    private final ThreadLocal<long[]> slotAndSequence =
+            ThreadLocal.withInitial(() -> new long[] {threadSlots.getAndIncrement() & 0xFFFF, 0});
+
+    public TimeOrderedOfferIdGenerator(int node) {
+        checkArgument(node >= 0 && node <= MAX_NODE, "node must be between 0 and %s", MAX_NODE);
+        this.node = node;
+    }
+
+    @Override
+    public String nextId() {
+        long[] state = slotAndSequence.get();
+        long sequence = state[1]++;
+        long high = System.currentTimeMillis() << 16 | VERSION | (sequence >>> 30 & 0xFFF);
+        long low = VARIANT | node << 46 | state[0] << 30 | (sequence & 0x3FFFFFFF);
+        return new UUID(high, low).toString();
+    }
+}
@@ -1,12 +1,20 @@
 package com.echolima.offers;
 
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 
 @Service
 public class TimeService {
+    private volatile LocalDate today = LocalDate.now();
+
     public LocalDate now() {
-        return LocalDate.now();
+        return today;
+    }
+
+    @Scheduled(fixedRateString = "${offers.clock.tick-millis:1000}")
+    public void tick() {
+        today = LocalDate.now();
     }
 }
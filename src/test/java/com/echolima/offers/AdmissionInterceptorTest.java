@@ -0,0 +1,108 @@
+package com.echolima.offers;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AdmissionInterceptorTest {
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OffersMetrics metrics = new OffersMetrics(meterRegistry);
+
+    @Test
+    public void shouldRateLimitEachClientAndSayWhenToRetry() {
+        AdmissionInterceptor interceptor = interceptor(1, 2, 2, 10, 1000);
+
+        assertThat(admit(interceptor, request("GET", "/offers/id", "10.0.0.1")).getStatus(), is(200));
+        assertThat(admit(interceptor, request("GET", "/offers/id", "10.0.0.1")).getStatus(), is(200));
+        MockHttpServletResponse limited = admit(interceptor, request("GET", "/offers", "10.0.0.1"));
+
+        assertThat(limited.getStatus(), is(HttpStatus.TOO_MANY_REQUESTS.value()));
+        assertThat(limited.getHeader(HttpHeaders.RETRY_AFTER), is("2"));
+        assertThat(admit(interceptor, request("GET", "/offers", "10.0.0.2")).getStatus(), is(200));
+        assertThat(meterRegistry.get("offers.admission.rejections")
+                .tag("lane", "bulk").tag("reason", "rate_limited").counter().count(), is(1.0));
+    }
+
+    @Test
+    public void shouldShedBulkRequestsWhilePointRequestsAreSlow() throws Exception {
+        AdmissionInterceptor interceptor = interceptor(1000, 1000, 10, 4, 1);
+        MockHttpServletRequest slowPoint = request("GET", "/offers/id", "10.0.0.1");
+        admit(interceptor, slowPoint);
+        Thread.sleep(50);
+        interceptor.afterCompletion(slowPoint, new MockHttpServletResponse(), null, null);
+
+        assertThat(interceptor.getBulkLimit(), is(2));
+        assertThat(admit(interceptor, request("GET", "/offers", "10.0.0.1")).getStatus(), is(200));
+        assertThat(admit(interceptor, request("POST", "/offers/batch", "10.0.0.1")).getStatus(), is(200));
+        MockHttpServletResponse shed = admit(interceptor, request("GET", "/offers/search", "10.0.0.1"));
+
+        assertThat(shed.getStatus(), is(HttpStatus.SERVICE_UNAVAILABLE.value()));
+        assertThat(shed.getHeader(HttpHeaders.RETRY_AFTER), is("1"));
+        assertThat(admit(interceptor, request("GET", "/offers/id", "10.0.0.1")).getStatus(), is(200));
+    }
+
+    @Test
+    public void shouldOnlyLetRequestsMarkedLocalThroughUncountedWhenTheyCarryTheNodeSecret() {
+        AdmissionInterceptor interceptor = interceptor(1, 2, 2, 4, 1000);
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest fromNode = request("GET", "/offers", "10.0.0.1");
+            fromNode.setParameter(OffersPartitioning.LOCAL, "true");
+            fromNode.addHeader(OffersPartitioning.NODE_SECRET, "secret");
+            assertThat(admit(interceptor, fromNode).getStatus(), is(200));
+        }
+
+        MockHttpServletRequest fromClient = request("GET", "/offers", "10.0.0.2");
+        fromClient.setParameter(OffersPartitioning.LOCAL, "true");
+        fromClient.addHeader(OffersPartitioning.NODE_SECRET, "guess");
+        assertThat(admit(interceptor, fromClient).getStatus(), is(200));
+        assertThat(admit(interceptor, fromClient).getStatus(), is(HttpStatus.TOO_MANY_REQUESTS.value()));
+    }
+
+    @Test
+    public void shouldTellClientsBehindTrustedProxyApartByForwardedAddressOrClientId() {
+        AdmissionInterceptor interceptor = interceptor(1, 1, 1, 4, 1000);
+        MockHttpServletRequest first = request("GET", "/offers/id", "10.0.0.100");
+        first.addHeader("X-Forwarded-For", "10.0.0.1, 10.0.0.101");
+        MockHttpServletRequest second = request("GET", "/offers/id", "10.0.0.100");
+        second.addHeader("X-Forwarded-For", "10.0.0.2");
+        MockHttpServletRequest untrusted = request("GET", "/offers/id", "10.0.0.3");
+        untrusted.addHeader("X-Forwarded-For", "10.0.0.4");
+
+        assertThat(admit(interceptor, first).getStatus(), is(200));
+        assertThat(admit(interceptor, second).getStatus(), is(200));
+        assertThat(admit(interceptor, first).getStatus(), is(HttpStatus.TOO_MANY_REQUESTS.value()));
+        assertThat(admit(interceptor, untrusted).getStatus(), is(200));
+        assertThat(admit(interceptor, request("GET", "/offers/id", "10.0.0.3")).getStatus(),
+                is(HttpStatus.TOO_MANY_REQUESTS.value()));
+        MockHttpServletRequest identified = request("GET", "/offers/id", "10.0.0.3");
+        identified.addHeader("Client-Id", "client");
+        assertThat(admit(interceptor, identified).getStatus(), is(200));
+    }
+
+    private AdmissionInterceptor interceptor(
+            double clientRate, double clientBurst, double bulkCost, int maxBulkRequests, long latencyTargetMillis) {
+        return new AdmissionInterceptor(metrics, clientRate, clientBurst, bulkCost, 10, maxBulkRequests,
+                latencyTargetMillis, "Client-Id", Arrays.asList("10.0.0.100", "10.0.0.101"), "secret");
+    }
+
+    private static MockHttpServletResponse admit(AdmissionInterceptor interceptor, MockHttpServletRequest request) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        interceptor.preHandle(request, response, null);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String path, String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setRemoteAddr(client);
+        return request;
+    }
+}
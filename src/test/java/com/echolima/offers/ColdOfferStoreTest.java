@@ -0,0 +1,102 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ColdOfferStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path path;
+    private ColdOfferStore coldStore;
+
+    @Before
+    public void setup() throws IOException {
+        path = temporaryFolder.newFile().toPath();
+        coldStore = new ColdOfferStore(path, 256);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        coldStore.close();
+    }
+
+    @Test
+    public void shouldReadBackOffersSpreadOverRegions() {
+        List<Offer> offers = IntStream.range(0, 100)
+                .mapToObj(i -> OffersRepositoryTest.offer("id" + i, LocalDate.now().minusDays(i)))
+                .collect(Collectors.toList());
+
+        coldStore.putAll(offers);
+
+        offers.forEach(offer -> assertThat(coldStore.get(offer.getId()), is(offer)));
+        assertThat(coldStore.size(), is(100));
+        assertThat(Lists.newArrayList(coldStore.iterator()).size(), is(100));
+        assertThat(coldStore.get("missing"), nullValue());
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveOffers() {
+        Offer offer = OffersRepositoryTest.offer("id", LocalDate.now());
+        Offer cancelledOffer = Offer.builder(offer).withCancelled(true).build();
+        coldStore.putAll(Collections.singletonList(offer));
+
+        coldStore.putAll(Collections.singletonList(cancelledOffer));
+
+        assertThat(coldStore.get("id"), is(cancelledOffer));
+        assertThat(coldStore.remove("id"), is(cancelledOffer));
+        assertThat(coldStore.contains("id"), is(false));
+        assertThat(coldStore.size(), is(0));
+    }
+
+    @Test
+    public void shouldKeepOffersWhenReopened() throws IOException {
+        List<Offer> offers = IntStream.range(0, 100)
+                .mapToObj(i -> OffersRepositoryTest.offer("id" + i, LocalDate.now().minusDays(i)))
+                .collect(Collectors.toList());
+        Offer cancelledOffer = Offer.builder(offers.get(0)).withCancelled(true).build();
+        coldStore.putAll(offers);
+        coldStore.putAll(Collections.singletonList(cancelledOffer));
+        coldStore.remove("id1");
+
+        coldStore.close();
+        coldStore = new ColdOfferStore(path, 256);
+
+        assertThat(coldStore.size(), is(99));
+        assertThat(coldStore.get("id0"), is(cancelledOffer));
+        assertThat(coldStore.get("id1"), nullValue());
+        offers.stream().skip(2).forEach(offer -> assertThat(coldStore.get(offer.getId()), is(offer)));
+    }
+
+    @Test
+    public void shouldNotBringBackOffersClearedBeforeReopening() throws IOException {
+        coldStore.putAll(IntStream.range(0, 100)
+                .mapToObj(i -> OffersRepositoryTest.offer("id" + i, LocalDate.now()))
+                .collect(Collectors.toList()));
+        coldStore.clear();
+        Offer offer = OffersRepositoryTest.offer("new", LocalDate.now());
+        coldStore.putAll(Collections.singletonList(offer));
+
+        coldStore.close();
+        coldStore = new ColdOfferStore(path, 256);
+
+        assertThat(coldStore.size(), is(1));
+        assertThat(coldStore.get("new"), is(offer));
+    }
+}
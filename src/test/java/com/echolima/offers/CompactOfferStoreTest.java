@@ -0,0 +1,142 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CompactOfferStoreTest {
+    private final CompactOfferStore offerStore = new CompactOfferStore();
+
+    @Test
+    public void shouldReadBackStoredOffer() {
+        Offer offer = Offer.builder()
+                .withId(UUID.randomUUID().toString())
+                .withCurrency(Currency.getInstance("JPY"))
+                .withPriceInPence(new BigDecimal("12.50"))
+                .withExpiryDate(LocalDate.now().plusDays(3))
+                .withDescription("Sushi för två")
+                .withCancelled(true)
+                .build();
+
+        offerStore.put(offer);
+
+        assertThat(offerStore.get(offer.getId()), is(offer));
+    }
+
+    @Test
+    public void shouldReturnNullForMissingOffer() {
+        assertThat(offerStore.get(UUID.randomUUID().toString()), nullValue());
+        assertThat(offerStore.get("id"), nullValue());
+    }
+
+    @Test
+    public void shouldUpdateOfferInPlace() {
+        Offer offer = offer(UUID.randomUUID().toString());
+        offerStore.put(offer);
+
+        offerStore.computeIfPresent(offer.getId(), current -> Offer.builder(current).withCancelled(true).build());
+
+        assertThat(offerStore.get(offer.getId()).isCancelled(), is(true));
+        assertThat(Lists.newArrayList(offerStore.iterator()).size(), is(1));
+    }
+
+    @Test
+    public void shouldRemoveOfferAndSkipItWhenIterating() {
+        List<String> ids = IntStream.range(0, 3000)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+        ids.forEach(id -> offerStore.put(offer(id)));
+
+        assertThat(offerStore.remove(ids.get(1)).getId(), is(ids.get(1)));
+        assertThat(offerStore.remove(ids.get(2999)).getId(), is(ids.get(2999)));
+        assertThat(offerStore.remove(ids.get(1)), nullValue());
+        offerStore.put(offer(UUID.randomUUID().toString()));
+
+        assertThat(offerStore.get(ids.get(1)), nullValue());
+        assertThat(offerStore.get(ids.get(2)).getId(), is(ids.get(2)));
+        assertThat(Lists.newArrayList(offerStore.iteratorAfter(ids.get(0))).get(0).getId(), is(ids.get(2)));
+        assertThat(offerStore.hasAfter(ids.get(2998)), is(true));
+        assertThat(Lists.newArrayList(offerStore.iterator()).size(), is(2999));
+        offerStore.put(offer(ids.get(1)));
+        assertThat(offerStore.get(ids.get(1)).getId(), is(ids.get(1)));
+    }
+
+    @Test
+    public void shouldIterateAndPageInInsertionOrderBeyondInitialCapacity() {
+        List<String> ids = IntStream.range(0, 5000)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+        ids.forEach(id -> offerStore.put(offer(id)));
+
+        assertThat(ids(offerStore.iterator()), is(ids));
+        assertThat(ids(offerStore.iteratorAfter(ids.get(4997))), is(ids.subList(4998, 5000)));
+        assertThat(offerStore.hasAfter(ids.get(4998)), is(true));
+        assertThat(offerStore.hasAfter(ids.get(4999)), is(false));
+        assertThat(offerStore.get(ids.get(1234)).getId(), is(ids.get(1234)));
+    }
+
+    @Test
+    public void shouldCompactOnceAQuarterOfOffersAreRemovedWithoutLosingIteratorsPlace() {
+        List<String> ids = IntStream.range(0, 4000)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+        ids.forEach(id -> offerStore.put(offer(id)));
+        long footprintBytes = offerStore.footprintBytes();
+        Iterator<Offer> offers = offerStore.iterator();
+        List<String> iterated = Lists.newArrayList(offers.next().getId(), offers.next().getId());
+
+        List<String> kept = IntStream.range(0, ids.size())
+                .filter(i -> i % 2 == 0 || i < 2)
+                .mapToObj(ids::get)
+                .collect(Collectors.toList());
+        IntStream.range(2, ids.size()).filter(i -> i % 2 == 1).forEach(i -> offerStore.remove(ids.get(i)));
+        offers.forEachRemaining(offer -> iterated.add(offer.getId()));
+
+        assertThat(iterated, is(kept));
+        assertThat(ids(offerStore.iteratorAfter(kept.get(1997))), is(kept.subList(1998, kept.size())));
+        assertThat(offerStore.iteratorAfter(ids.get(3)), nullValue());
+        String added = UUID.randomUUID().toString();
+        offerStore.put(offer(added));
+        assertThat(ids(offerStore.iteratorAfter(kept.get(kept.size() - 1))), is(Lists.newArrayList(added)));
+        assertThat(offerStore.get(kept.get(1000)).getId(), is(kept.get(1000)));
+        IntStream.range(0, 1000).forEach(i -> offerStore.put(offer(UUID.randomUUID().toString())));
+        assertThat(offerStore.footprintBytes(), is(footprintBytes));
+    }
+
+    @Test
+    public void shouldForgetOffersWhenCleared() {
+        String id = UUID.randomUUID().toString();
+        offerStore.put(offer(id));
+
+        offerStore.clear();
+        offerStore.put(offer(UUID.randomUUID().toString()));
+
+        assertThat(offerStore.get(id), nullValue());
+        assertThat(ids(offerStore.iterator()).size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIdsWhichAreNotUuids() {
+        offerStore.put(offer("id"));
+    }
+
+    private static List<String> ids(Iterator<Offer> offers) {
+        return Lists.newArrayList(offers).stream().map(Offer::getId).collect(Collectors.toList());
+    }
+
+    private static Offer offer(String id) {
+        return OffersRepositoryTest.offer(id, LocalDate.now().plusWeeks(1));
+    }
+}
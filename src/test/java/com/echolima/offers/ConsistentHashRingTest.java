@@ -0,0 +1,49 @@
+package com.echolima.offers;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ConsistentHashRingTest {
+    private static final List<String> IDS = IntStream.range(0, 30000)
+            .mapToObj(i -> UUID.randomUUID().toString())
+            .collect(Collectors.toList());
+
+    @Test
+    public void shouldSplitIdsEvenlyBetweenNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(ImmutableList.of("a", "b", "c"), 128);
+
+        Map<String, Long> nodeToCount = IDS.stream()
+                .collect(Collectors.groupingBy(ring::nodeFor, Collectors.counting()));
+
+        assertThat(nodeToCount.keySet().size(), is(3));
+        nodeToCount.values().forEach(count -> assertThat(count, allOf(greaterThan(8000L), lessThan(12000L))));
+    }
+
+    @Test
+    public void shouldOnlyMoveIdsToJoiningNode() {
+        ConsistentHashRing before = new ConsistentHashRing(ImmutableList.of("a", "b", "c"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(ImmutableList.of("a", "b", "c", "d"), 128);
+
+        Map<String, Integer> movedTo = new HashMap<>();
+        IDS.stream()
+                .filter(id -> !before.nodeFor(id).equals(after.nodeFor(id)))
+                .forEach(id -> movedTo.merge(after.nodeFor(id), 1, Integer::sum));
+
+        assertThat(movedTo.keySet(), is(Collections.singleton("d")));
+        assertThat(movedTo.get("d"), allOf(greaterThan(6000), lessThan(9000)));
+    }
+}
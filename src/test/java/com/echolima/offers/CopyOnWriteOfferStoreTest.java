@@ -0,0 +1,91 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CopyOnWriteOfferStoreTest {
+    private final CopyOnWriteOfferStore offerStore = new CopyOnWriteOfferStore();
+
+    @Test
+    public void shouldIterateAndPageInKeyOrder() {
+        List<String> ids = IntStream.range(0, 5000)
+                .mapToObj(i -> new UUID(i, new Random(i).nextLong()).toString())
+                .collect(Collectors.toList());
+        List<String> shuffled = Lists.newArrayList(ids);
+        Collections.shuffle(shuffled, new Random(42));
+        shuffled.forEach(id -> offerStore.put(offer(id)));
+
+        assertThat(ids(offerStore.iterator()), is(ids));
+        assertThat(ids(offerStore.iteratorAfter(ids.get(4997))), is(ids.subList(4998, 5000)));
+        assertThat(offerStore.hasAfter(ids.get(4998)), is(true));
+        assertThat(offerStore.hasAfter(ids.get(4999)), is(false));
+        assertThat(offerStore.get(ids.get(1234)).getId(), is(ids.get(1234)));
+        assertThat(offerStore.get("unknown"), nullValue());
+    }
+
+    @Test
+    public void shouldRemoveOffersAndStayInKeyOrder() {
+        List<String> ids = IntStream.range(0, 2000)
+                .mapToObj(i -> new UUID(i, 0).toString())
+                .collect(Collectors.toList());
+        ids.forEach(id -> offerStore.put(offer(id)));
+        OfferStore snapshot = offerStore.snapshot();
+
+        List<String> kept = Lists.newArrayList();
+        for (int i = 0; i < ids.size(); i++) {
+            if (i % 3 == 0) {
+                assertThat(offerStore.remove(ids.get(i)).getId(), is(ids.get(i)));
+            } else {
+                kept.add(ids.get(i));
+            }
+        }
+
+        assertThat(offerStore.remove(ids.get(0)), nullValue());
+        assertThat(offerStore.get(ids.get(0)), nullValue());
+        assertThat(ids(offerStore.iterator()), is(kept));
+        assertThat(ids(snapshot.iterator()), is(ids));
+    }
+
+    @Test
+    public void shouldNotChangeSnapshotWhenStoreIsWritten() {
+        offerStore.put(offer("id1"));
+        OfferStore snapshot = offerStore.snapshot();
+        Iterator<Offer> iterator = offerStore.iterator();
+
+        offerStore.computeIfPresent("id1", current -> Offer.builder(current).withCancelled(true).build());
+        offerStore.put(offer("id2"));
+        offerStore.clear();
+
+        assertThat(snapshot.get("id1").isCancelled(), is(false));
+        assertThat(ids(snapshot.iterator()), is(Lists.newArrayList("id1")));
+        assertThat(snapshot.hasAfter("id1"), is(false));
+        assertThat(ids(iterator), is(Lists.newArrayList("id1")));
+        assertThat(offerStore.get("id1"), nullValue());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotWriteToSnapshot() {
+        offerStore.snapshot().put(offer("id"));
+    }
+
+    private static List<String> ids(Iterator<Offer> offers) {
+        return Lists.newArrayList(offers).stream().map(Offer::getId).collect(Collectors.toList());
+    }
+
+    private static Offer offer(String id) {
+        return OffersRepositoryTest.offer(id, LocalDate.now().plusWeeks(1));
+    }
+}
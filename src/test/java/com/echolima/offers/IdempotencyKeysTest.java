@@ -0,0 +1,79 @@
+package com.echolima.offers;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashCode;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IdempotencyKeysTest {
+    private static final HashCode REQUEST = HashCode.fromInt(1);
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final IdempotencyKeys idempotencyKeys = new IdempotencyKeys(100, Duration.ofMinutes(1), new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+
+    @Test
+    public void shouldCreateOnceForConcurrentAttemptsWithSameKey() throws InterruptedException, ExecutionException {
+        AtomicInteger creates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Optional<String>>> ids = IntStream.range(0, 8)
+                .mapToObj(i -> executor.submit(
+                        () -> idempotencyKeys.idFor("key", REQUEST, () -> "id" + creates.incrementAndGet())))
+                .collect(Collectors.toList());
+        executor.shutdown();
+
+        for (Future<Optional<String>> id : ids) {
+            assertThat(id.get(), is(Optional.of("id1")));
+        }
+        assertThat(creates.get(), is(1));
+    }
+
+    @Test
+    public void shouldForgetKeyAfterTimeToLive() {
+        Optional<String> first = idempotencyKeys.idFor("key", REQUEST, () -> "first");
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+        assertThat(idempotencyKeys.idFor("key", REQUEST, () -> "second"), is(not(first)));
+    }
+
+    @Test
+    public void shouldNotRememberFailedCreate() {
+        try {
+            idempotencyKeys.idFor("key", REQUEST, () -> {
+                throw new IllegalArgumentException("failed");
+            });
+        } catch (IllegalArgumentException expected) {
+            // the create failed and can be retried
+        }
+
+        assertThat(idempotencyKeys.idFor("key", REQUEST, () -> "retried"), is(Optional.of("retried")));
+    }
+
+    @Test
+    public void shouldNotReturnIdForKeyReusedWithDifferentRequest() {
+        idempotencyKeys.idFor("key", REQUEST, () -> "first");
+
+        assertThat(idempotencyKeys.idFor("key", HashCode.fromInt(2), () -> "second"), is(Optional.empty()));
+        assertThat(idempotencyKeys.idFor("key", REQUEST, () -> "second"), is(Optional.of("first")));
+    }
+}
@@ -0,0 +1,113 @@
+package com.echolima.offers;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OfferChangeFeedTest {
+    private final OfferChangeFeed changeFeed = new OfferChangeFeed(3);
+
+    @Test
+    public void shouldReturnChangesAfterSequenceInOrder() {
+        changeFeed.offersCreated(Arrays.asList(offer("1"), offer("2")));
+        changeFeed.offerCancelled(offer("1"));
+
+        List<OfferChange> changes = changeFeed.changesAfter(1, 10).get();
+
+        assertThat(changes.stream().map(OfferChange::getSequence).collect(Collectors.toList()), is(Arrays.asList(2L, 3L)));
+        assertThat(changes.get(1).getType(), is(OfferChange.Type.CANCELLED));
+        assertThat(changes.get(1).getOffer().getId(), is("1"));
+        assertThat(changeFeed.changesAfter(0, 1).get().size(), is(1));
+        assertThat(changeFeed.changesAfter(3, 10).get().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldNotResumeFromSequenceNoLongerKeptOrNeverReached() {
+        changeFeed.offersCreated(Arrays.asList(offer("1"), offer("2"), offer("3"), offer("4")));
+
+        assertThat(changeFeed.changesAfter(0, 10), is(Optional.empty()));
+        assertThat(changeFeed.changesAfter(1, 10).get().size(), is(3));
+        assertThat(changeFeed.changesAfter(5, 10), is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldCompleteWaitWithNextChange() {
+        changeFeed.offerCreated(offer("1"));
+        CompletableFuture<Optional<List<OfferChange>>> changes = changeFeed.awaitChangesAfter(1, 10);
+        assertThat(changes.isDone(), is(false));
+
+        changeFeed.offerExpired(offer("1"));
+
+        assertThat(changes.getNow(null).get().get(0).getType(), is(OfferChange.Type.EXPIRED));
+        assertThat(changeFeed.awaitChangesAfter(1, 10).isDone(), is(true));
+    }
+
+    @Test
+    public void shouldHoldBackChangesUntilCreatedOfferIsStored() {
+        Offer created = offer("1");
+        changeFeed.offersCreating(Collections.singletonList(created));
+        changeFeed.offerCancelled(offer("2"));
+        CompletableFuture<Optional<List<OfferChange>>> changes = changeFeed.awaitChangesAfter(0, 10);
+
+        assertThat(changeFeed.visibleSequence(), is(0L));
+        assertThat(changeFeed.changesAfter(0, 10).get().isEmpty(), is(true));
+        assertThat(changes.isDone(), is(false));
+
+        changeFeed.offersCreated(Collections.singletonList(created));
+
+        assertThat(changes.getNow(null).get().stream().map(OfferChange::getType).collect(Collectors.toList()),
+                is(Arrays.asList(OfferChange.Type.CREATED, OfferChange.Type.CANCELLED)));
+        assertThat(changeFeed.visibleSequence(), is(2L));
+    }
+
+    @Test
+    public void shouldGiveLatestSequenceOfWriteWhileEarlierCreationIsHeldBack() {
+        Offer held = offer("1");
+        changeFeed.offersCreating(Collections.singletonList(held));
+        Offer created = offer("2");
+        changeFeed.offersCreating(Collections.singletonList(created));
+        changeFeed.offersCreated(Collections.singletonList(created));
+
+        long latestSequence = changeFeed.latestSequence();
+
+        assertThat(latestSequence, is(2L));
+        assertThat(changeFeed.visibleSequence(), is(0L));
+
+        changeFeed.offersCreated(Collections.singletonList(held));
+
+        OfferChange change = changeFeed.changesAfter(latestSequence - 1, 10).get().get(0);
+        assertThat(change.getSequence(), is(latestSequence));
+        assertThat(change.getOffer().getId(), is("2"));
+    }
+
+    @Test
+    public void shouldTurnCreationThatWasNotStoredIntoRemoval() {
+        Offer created = offer("1");
+        changeFeed.offersCreating(Collections.singletonList(created));
+
+        changeFeed.offersNotCreated(Collections.singletonList(created));
+
+        assertThat(changeFeed.changesAfter(0, 10).get().get(0).getType(), is(OfferChange.Type.REMOVED));
+    }
+
+    private static Offer offer(String id) {
+        return Offer.builder()
+                .withId(id)
+                .withCurrency(Currency.getInstance("GBP"))
+                .withPriceInPence(BigDecimal.ONE)
+                .withExpiryDate(LocalDate.of(2100, 1, 1))
+                .withDescription("Hot Dogs")
+                .build();
+    }
+}
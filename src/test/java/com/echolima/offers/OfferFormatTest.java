@@ -0,0 +1,27 @@
+package com.echolima.offers;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OfferFormatTest {
+    @Test
+    public void shouldPickMostPreferredFormatWithWildcardsStandingForJson() {
+        assertThat(OfferFormat.forAccept(null), is(OfferFormat.JSON));
+        assertThat(OfferFormat.forAccept("application/x-jackson-smile"), is(OfferFormat.SMILE));
+        assertThat(OfferFormat.forAccept("application/json, application/x-jackson-smile;q=0.1"),
+                is(OfferFormat.JSON));
+        assertThat(OfferFormat.forAccept("*/*, application/x-ndjson;q=0.5"), is(OfferFormat.JSON));
+        assertThat(OfferFormat.forAccept("application/json;q=0.5, application/x-ndjson"), is(OfferFormat.NDJSON));
+        assertThat(OfferFormat.forAccept("text/html"), is(OfferFormat.JSON));
+    }
+
+    @Test
+    public void shouldNotPickFormatRefusedWithQualityOfZero() {
+        assertThat(OfferFormat.forAccept("application/x-jackson-smile;q=0"), is(OfferFormat.JSON));
+        assertThat(OfferFormat.forAccept("application/x-jackson-smile;q=0, application/x-ndjson;q=0.1"),
+                is(OfferFormat.NDJSON));
+        assertThat(OfferFormat.forAccept("application/json;q=0, */*"), is(OfferFormat.NDJSON));
+    }
+}
@@ -0,0 +1,49 @@
+package com.echolima.offers;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OfferKeyTest {
+    @Test
+    public void shouldKeepCanonicalUuidsAsBinary() {
+        String id = UUID.randomUUID().toString();
+
+        OfferKey offerKey = OfferKey.of(id);
+
+        assertThat(offerKey.isBinary(), is(true));
+        assertThat(offerKey.toString(), is(id));
+        assertThat(offerKey, is(OfferKey.of(id)));
+    }
+
+    @Test
+    public void shouldKeepAnythingElseAsString() {
+        String upperCaseId = UUID.randomUUID().toString().toUpperCase();
+
+        assertThat(OfferKey.of("id1").isBinary(), is(false));
+        assertThat(OfferKey.of(upperCaseId).isBinary(), is(false));
+        assertThat(OfferKey.of(upperCaseId).toString(), is(upperCaseId));
+    }
+
+    @Test
+    public void shouldSortUuidsInStringOrder() {
+        List<String> ids = IntStream.range(0, 1000)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+
+        List<String> sortedByKey = ids.stream()
+                .map(OfferKey::of)
+                .sorted()
+                .map(OfferKey::toString)
+                .collect(Collectors.toList());
+
+        assertThat(sortedByKey, is(ids.stream().sorted(Comparator.naturalOrder()).collect(Collectors.toList())));
+    }
+}
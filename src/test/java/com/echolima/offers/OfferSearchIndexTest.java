@@ -0,0 +1,95 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Currency;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OfferSearchIndexTest {
+    private OfferSearchIndex searchIndex;
+
+    @Before
+    public void setup() {
+        searchIndex = new OfferSearchIndex();
+        searchIndex.add(offer("hotdogs", "Two hot dogs for the price of one"));
+        searchIndex.add(offer("coffee", "Hot coffee, hot coffee and more hot coffee"));
+        searchIndex.add(offer("services", "IT Services"));
+    }
+
+    @Test
+    public void shouldMatchAllTermsIgnoringCaseAndPunctuation() {
+        assertThat(searchIndex.search("HOT dogs", 10), is(Lists.newArrayList("hotdogs")));
+        assertThat(searchIndex.search("coffee,", 10), is(Lists.newArrayList("coffee")));
+    }
+
+    @Test
+    public void shouldMatchPrefixes() {
+        assertThat(searchIndex.search("serv*", 10), is(Lists.newArrayList("services")));
+        assertThat(searchIndex.search("do* pri*", 10), is(Lists.newArrayList("hotdogs")));
+    }
+
+    @Test
+    public void shouldRankByTermFrequency() {
+        assertThat(searchIndex.search("hot", 10), is(Lists.newArrayList("coffee", "hotdogs")));
+    }
+
+    @Test
+    public void shouldLimitResults() {
+        assertThat(searchIndex.search("hot", 1), is(Lists.newArrayList("coffee")));
+    }
+
+    @Test
+    public void shouldNotMatchUnknownTerms() {
+        assertThat(searchIndex.search("hot pizza", 10).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldNotMatchRemovedOffers() {
+        searchIndex.remove("coffee");
+
+        assertThat(searchIndex.search("hot", 10), is(Lists.newArrayList("hotdogs")));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        for (int i = 0; i < 5000; i++) {
+            searchIndex.add(offer("id" + i, "Offer number " + i));
+        }
+
+        assertThat(searchIndex.search("number 4999", 10), is(Lists.newArrayList("id4999")));
+        assertThat(searchIndex.search("offer", 10000).size(), is(5000));
+    }
+
+    @Test
+    public void shouldDropRemovedOffersFromPostingsOnceAQuarterAreRemoved() {
+        for (int i = 0; i < 2000; i++) {
+            searchIndex.add(offer("id" + i, "Offer number " + i));
+        }
+        searchIndex.removeAll(IntStream.range(0, 1500).mapToObj(i -> "id" + i).collect(Collectors.toList()));
+        searchIndex.add(offer("id2000", "Offer number 2000"));
+
+        assertThat(searchIndex.postingCount(), is(14 + 501 * 3));
+        assertThat(searchIndex.search("number 1999", 10), is(Lists.newArrayList("id1999")));
+        assertThat(searchIndex.search("number 2000", 10), is(Lists.newArrayList("id2000")));
+        assertThat(searchIndex.search("offer", 10000).size(), is(501));
+        assertThat(searchIndex.search("hot", 10), is(Lists.newArrayList("coffee", "hotdogs")));
+    }
+
+    private static Offer offer(String id, String description) {
+        return Offer.builder()
+                .withId(id)
+                .withDescription(description)
+                .withCurrency(Currency.getInstance("GBP"))
+                .withPriceInPence(BigDecimal.TEN)
+                .withExpiryDate(LocalDate.now().plusWeeks(1))
+                .build();
+    }
+}
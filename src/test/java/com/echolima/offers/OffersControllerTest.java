@@ -1,6 +1,9 @@
 package com.echolima.offers;
 
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,9 +12,13 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -20,8 +27,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.LocalDate;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -45,6 +56,12 @@ public class OffersControllerTest {
     @Autowired
     private OffersRepository offersRepository;
 
+    @Autowired
+    private OfferChangeFeed changeFeed;
+
+    @Autowired
+    private MappingJackson2SmileHttpMessageConverter smileConverter;
+
     @Before
     public void setUp() throws Exception {
         this.base = new URL("http://localhost:" + port + "/offers");
@@ -61,6 +78,128 @@ public class OffersControllerTest {
         assertThat(createOfferResponse.getStatusCode(), is(HttpStatus.CREATED));
     }
 
+    @Test
+    public void shouldReturnOriginalOfferForRepeatedIdempotencyKey() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(OffersController.IDEMPOTENCY_KEY, "retry-me");
+        HttpEntity<CreateOfferRequest> request = new HttpEntity<>(createOfferRequest(timeService.now().plusDays(1)), headers);
+
+        URI first = template.postForEntity(base.toString(), request, Void.class).getHeaders().getLocation();
+        ResponseEntity<Void> repeat = template.postForEntity(base.toString(), request, Void.class);
+
+        assertThat(repeat.getStatusCode(), is(HttpStatus.CREATED));
+        assertThat(repeat.getHeaders().getLocation(), is(first));
+        assertThat(offersRepository.getOffers().size(), is(1));
+    }
+
+    @Test
+    public void shouldRefuseIdempotencyKeyReusedForDifferentOffer() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(OffersController.IDEMPOTENCY_KEY, "reuse-me");
+        CreateOfferRequest first = createOfferRequest(timeService.now().plusDays(1));
+        CreateOfferRequest samePrice = createOfferRequest(timeService.now().plusDays(1));
+        samePrice.setOfferPriceInPence(first.getOfferPriceInPence().setScale(2));
+        CreateOfferRequest other = createOfferRequest(timeService.now().plusDays(2));
+
+        URI location = template.postForLocation(base.toString(), new HttpEntity<>(first, headers));
+
+        assertThat(template.postForEntity(base.toString(), new HttpEntity<>(samePrice, headers), Void.class)
+                .getHeaders().getLocation(), is(location));
+        assertThat(template.postForEntity(base.toString(), new HttpEntity<>(other, headers), Void.class)
+                .getStatusCode(), is(HttpStatus.UNPROCESSABLE_ENTITY));
+        assertThat(offersRepository.getOffers().size(), is(1));
+    }
+
+    @Test
+    public void shouldReturnStatistics() {
+        template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(1)));
+        template.delete(template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(1))));
+
+        ResponseEntity<List<Map<String, Object>>> stats = template.exchange(base + "/stats", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+
+        assertThat(stats.getStatusCode(), is(HttpStatus.OK));
+        assertThat(stats.getBody().stream().map(totals -> totals.get("status") + " " + totals.get("count"))
+                .collect(Collectors.toList()), is(Lists.newArrayList("ACTIVE 1", "CANCELLED 1")));
+        assertThat(stats.getBody().get(0).get("averagePriceInPence"), is(1234.0));
+    }
+
+    @Test
+    public void shouldReturnChangesAfterSequence() {
+        long after = changeFeed.latestSequence();
+        URI location = template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(1)));
+        template.delete(location);
+
+        ResponseEntity<List<Map<String, Object>>> changes = getChanges(after, 0);
+
+        assertThat(changes.getStatusCode(), is(HttpStatus.OK));
+        assertThat(changes.getHeaders().getFirst(OffersController.LATEST_SEQUENCE), is(Long.toString(after + 2)));
+        assertThat(changes.getBody().stream().map(change -> change.get("type")).collect(Collectors.toList()),
+                is(Lists.newArrayList("CREATED", "CANCELLED")));
+        assertThat(getChanges(after + 3, 0).getStatusCode(), is(HttpStatus.GONE));
+    }
+
+    @Test
+    public void shouldGiveSequenceOfCreationWhileEarlierCreationIsHeldBack() {
+        List<Offer> held = Collections.singletonList(Offer.builder()
+                .withId("held")
+                .withCurrency(Currency.getInstance("GBP"))
+                .withPriceInPence(BigDecimal.ONE)
+                .withExpiryDate(timeService.now().plusDays(1))
+                .withDescription("Hot Dogs")
+                .build());
+        changeFeed.offersCreating(held);
+        ResponseEntity<Void> created;
+        try {
+            created = template.postForEntity(
+                    base.toString(), createOfferRequest(timeService.now().plusDays(1)), Void.class);
+        } finally {
+            changeFeed.offersNotCreated(held);
+        }
+        long latestSequence = Long.parseLong(created.getHeaders().getFirst(OffersController.LATEST_SEQUENCE));
+
+        Map<String, Object> change = getChanges(latestSequence - 1, 0).getBody().get(0);
+
+        assertThat(change.get("type"), is("CREATED"));
+        assertThat(((Map<?, ?>) change.get("offer")).get("id"),
+                is(created.getHeaders().getLocation().getPath().substring("/offers/".length())));
+    }
+
+    @Test
+    public void shouldWaitForNextChange() throws Exception {
+        long after = changeFeed.latestSequence();
+        CompletableFuture<ResponseEntity<List<Map<String, Object>>>> changes =
+                CompletableFuture.supplyAsync(() -> getChanges(after, 10));
+
+        template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(1)));
+
+        assertThat(changes.get().getBody().size(), is(1));
+        assertThat(changes.get().getBody().get(0).get("sequence"), is((Object) Math.toIntExact(after + 1)));
+    }
+
+    @Test
+    public void shouldCancelOffersMatchingRequest() {
+        template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(1)));
+        template.postForLocation(base.toString(), createOfferRequest(timeService.now().plusDays(5)));
+        CancelOffersRequest request = new CancelOffersRequest();
+        request.setExpiringBefore(timeService.now().plusDays(2));
+
+        ResponseEntity<Map<String, Integer>> response = template.exchange(base + "/cancellations", HttpMethod.POST,
+                new HttpEntity<>(request), new ParameterizedTypeReference<Map<String, Integer>>() {});
+
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(response.getBody().get("cancelled"), is(1));
+        assertThat(offersRepository.countOffers(OfferStatus.CANCELLED), is(1));
+    }
+
+    @Test
+    public void shouldBadRequestCancelOffersWithoutIdsOrFilters() {
+        ResponseEntity<String> response =
+                template.postForEntity(base + "/cancellations", new CancelOffersRequest(), String.class);
+
+        assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+    }
+
     @Test
     public void shouldBadRequestSaveOfferWhenMissingExpiryDate() {
         ResponseEntity<Void> createOfferResponse = template.postForEntity(
@@ -131,6 +270,62 @@ public class OffersControllerTest {
         assertThat(createOfferResponse.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
 
+    @Test
+    public void shouldSaveBatchOfOffersFromJsonArray() throws URISyntaxException {
+        String expiryDate = timeService.now().plusMonths(1).toString();
+        String body = "[" + batchItem("EUR", expiryDate) + "," + batchItem("NotACurrency", expiryDate) + ","
+                + batchItem("USD", expiryDate) + "]";
+
+        List<BatchItemResult> results = postBatch(body, MediaType.APPLICATION_JSON);
+
+        assertThat(results.size(), is(3));
+        assertThat(results.get(0).getId(), notNullValue());
+        assertThat(results.get(1).getError(), notNullValue());
+        assertThat(template.getForEntity(base.toURI().resolve("offers/" + results.get(2).getId()), Offer.class)
+                .getBody().getCurrency(), is(Currency.getInstance("USD")));
+    }
+
+    @Test
+    public void shouldSaveBatchOfOffersFromNdjson() throws URISyntaxException {
+        String expiryDate = timeService.now().plusMonths(1).toString();
+        String body = batchItem("EUR", expiryDate) + "\n" + batchItem("GBP", expiryDate) + "\n{\"broken\n";
+
+        List<BatchItemResult> results = postBatch(body, OffersController.APPLICATION_NDJSON);
+
+        assertThat(results.size(), is(3));
+        assertThat(results.get(2).getError(), notNullValue());
+        assertThat(offersRepository.getOffers().size(), is(2));
+    }
+
+    @Test
+    public void shouldRoundTripOffersInSmile() throws Exception {
+        ObjectMapper smileMapper = smileConverter.getObjectMapper();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(OffersController.APPLICATION_SMILE);
+        headers.setAccept(Collections.singletonList(OffersController.APPLICATION_SMILE));
+        CreateOfferRequest request = createOfferRequest(timeService.now().plusMonths(1));
+
+        URI location = template.postForLocation(
+                base.toString(), new HttpEntity<>(smileMapper.writeValueAsBytes(request), headers));
+        ResponseEntity<byte[]> batch = template.exchange(base + "/batch", HttpMethod.POST,
+                new HttpEntity<>(smileMapper.writeValueAsBytes(Lists.newArrayList(request, request)), headers),
+                byte[].class);
+        ResponseEntity<byte[]> offer = template.exchange(location, HttpMethod.GET, new HttpEntity<>(headers),
+                byte[].class);
+        ResponseEntity<byte[]> page = template.exchange(base + "?limit=10", HttpMethod.GET, new HttpEntity<>(headers),
+                byte[].class);
+
+        assertThat(batch.getHeaders().getContentType().includes(OffersController.APPLICATION_SMILE), is(true));
+        assertThat(smileMapper.<List<BatchItemResult>>readValue(batch.getBody(),
+                new TypeReference<List<BatchItemResult>>() {}).size(), is(2));
+        assertThat(offer.getHeaders().getContentType(), is(OffersController.APPLICATION_SMILE));
+        assertThat(smileMapper.readValue(offer.getBody(), Offer.class),
+                is(offersRepository.getOffer(location.getPath().substring("/offers/".length())).get()));
+        assertThat(page.getHeaders().getContentType(), is(OffersController.APPLICATION_SMILE));
+        assertThat(smileMapper.readValue(page.getBody(), new TypeReference<List<Offer>>() {}),
+                is(offersRepository.getOffers()));
+    }
+
     @Test
     public void shouldReadOffer() {
         LocalDate expiryDate = timeService.now().plusMonths(1);
@@ -179,6 +374,108 @@ public class OffersControllerTest {
         assertThat(responseEntity.getBody().size(), is(3));
     }
 
+    @Test
+    public void shouldStreamOffersAsNdjson() throws URISyntaxException {
+        IntStream.range(0, 3).forEach(i ->
+                template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusMonths(1)), Void.class));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(OffersController.APPLICATION_NDJSON));
+        ResponseEntity<String> responseEntity =
+                template.exchange(base.toURI(), HttpMethod.GET, new HttpEntity<>(headers), String.class);
+
+        assertThat(responseEntity.getHeaders().getContentType(), is(OffersController.APPLICATION_NDJSON));
+        assertThat(responseEntity.getBody().split("\n").length, is(3));
+    }
+
+    @Test
+    public void shouldPageThroughOffers() throws URISyntaxException {
+        IntStream.range(0, 5).forEach(i ->
+                template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusMonths(1)), Void.class));
+
+        URI nextPage = UriComponentsBuilder.fromHttpUrl(base.toString()).queryParam("limit", 2).build().toUri();
+        List<Integer> pageSizes = Lists.newArrayList();
+        while (nextPage != null) {
+            ResponseEntity<List<Offer>> responseEntity = template.exchange(
+                    nextPage,
+                    HttpMethod.GET,
+                    null,
+                    new ParameterizedTypeReference<List<Offer>>() {});
+            pageSizes.add(responseEntity.getBody().size());
+            String link = responseEntity.getHeaders().getFirst(HttpHeaders.LINK);
+            nextPage = link == null ? null : new URI(link.substring(1, link.indexOf('>')));
+        }
+
+        assertThat(pageSizes, is(Lists.newArrayList(2, 2, 1)));
+    }
+
+    @Test
+    public void shouldBadRequestGetOffersWithNonPositiveLimit() {
+        ResponseEntity<Void> responseEntity = template.getForEntity(
+                UriComponentsBuilder.fromHttpUrl(base.toString()).queryParam("limit", 0).build().toUri(),
+                Void.class);
+
+        assertThat(responseEntity.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void shouldFilterOffers() {
+        template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusMonths(1)), Void.class);
+        template.postForEntity(base.toString(), createOfferRequest(timeService.now().minusDays(5)), Void.class);
+        template.postForEntity(
+                base.toString(),
+                new CreateOfferRequest("USD", BigDecimal.valueOf(99), timeService.now().plusMonths(1), "Hot Dogs"),
+                Void.class);
+
+        ResponseEntity<List<Offer>> responseEntity = template.exchange(
+                UriComponentsBuilder.fromHttpUrl(base.toString())
+                        .queryParam("currency", "EUR")
+                        .queryParam("minPrice", 1000)
+                        .queryParam("status", OfferStatus.ACTIVE)
+                        .build().toUri(),
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<List<Offer>>() {});
+
+        assertThat(responseEntity.getBody().size(), is(1));
+        assertThat(responseEntity.getBody().get(0).getCurrency(), is(Currency.getInstance("EUR")));
+        assertThat(responseEntity.getBody().get(0).isExpired(), is(false));
+    }
+
+    @Test
+    public void shouldBadRequestFilterOffersWithInvalidCurrencyCode() {
+        ResponseEntity<Void> responseEntity = template.getForEntity(
+                UriComponentsBuilder.fromHttpUrl(base.toString()).queryParam("currency", "NotACurrency").build().toUri(),
+                Void.class);
+
+        assertThat(responseEntity.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void shouldSearchOffers() {
+        template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusMonths(1)), Void.class);
+        URI location = template.postForEntity(
+                base.toString(),
+                new CreateOfferRequest("USD", BigDecimal.valueOf(99), timeService.now().plusMonths(1), "Hot Dogs"),
+                Void.class).getHeaders().getLocation();
+
+        ResponseEntity<List<Offer>> responseEntity = template.exchange(
+                UriComponentsBuilder.fromHttpUrl(base.toString()).pathSegment("search").queryParam("q", "dog*").build().toUri(),
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<List<Offer>>() {});
+
+        assertThat(responseEntity.getBody().size(), is(1));
+        assertThat(responseEntity.getBody().get(0).getDescription(), is("Hot Dogs"));
+
+        template.delete(location);
+        assertThat(template.exchange(
+                UriComponentsBuilder.fromHttpUrl(base.toString()).pathSegment("search").queryParam("q", "dog*").build().toUri(),
+                HttpMethod.GET,
+                null,
+                new ParameterizedTypeReference<List<Offer>>() {}).getBody().isEmpty(), is(true));
+    }
+
     @Test
     public void shouldCancelOffer() {
         URI location = template.postForEntity(
@@ -255,6 +552,94 @@ public class OffersControllerTest {
         assertThat(offer.isExpired(), is(true));
     }
 
+    @Test
+    public void shouldReportValidationRejectionsOnMetricsEndpoint() {
+        double rejectionsBefore = validationRejections();
+
+        for (int i = 0; i < 3; i++) {
+            ResponseEntity<Void> responseEntity = template.postForEntity(
+                    base.toString(),
+                    new CreateOfferRequest("NotACurrency", BigDecimal.valueOf(1234l), timeService.now().plusDays(1),
+                            "Hot Dogs"),
+                    Void.class);
+            assertThat(responseEntity.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        }
+
+        assertThat(validationRejections() - rejectionsBefore, is(3.0));
+    }
+
+    @Test
+    public void shouldNotModifyOfferUntilCancelled() {
+        URI location = template.postForEntity(
+                base.toString(), createOfferRequest(timeService.now().plusDays(3)), Void.class).getHeaders().getLocation();
+        String etag = template.getForEntity(location, Offer.class).getHeaders().getETag();
+
+        assertThat(etag, notNullValue());
+        assertThat(getIfNoneMatch(location, etag).getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+
+        template.delete(location);
+
+        assertThat(getIfNoneMatch(location, etag).getStatusCode(), is(HttpStatus.OK));
+        assertThat(template.getForEntity(location, Offer.class).getBody().isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldNotModifyPageUntilOffersChange() throws URISyntaxException {
+        template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusDays(3)), Void.class);
+        URI firstPage = UriComponentsBuilder.fromUri(base.toURI()).queryParam("limit", 10).build().toUri();
+        ResponseEntity<Offer[]> page = template.getForEntity(firstPage, Offer[].class);
+        String etag = page.getHeaders().getETag();
+
+        assertThat(template.getForEntity(firstPage, Offer[].class).getBody().length, is(1));
+        assertThat(getIfNoneMatch(firstPage, etag).getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+
+        template.postForEntity(base.toString(), createOfferRequest(timeService.now().plusDays(3)), Void.class);
+
+        assertThat(getIfNoneMatch(firstPage, etag).getStatusCode(), is(HttpStatus.OK));
+        assertThat(template.getForEntity(firstPage, Offer[].class).getBody().length, is(2));
+    }
+
+    private ResponseEntity<List<Map<String, Object>>> getChanges(long after, int waitSeconds) {
+        return template.exchange(base + "/changes?after=" + after + "&waitSeconds=" + waitSeconds, HttpMethod.GET,
+                null, new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+    }
+
+    private double validationRejections() {
+        ResponseEntity<Map<String, Object>> responseEntity = template.exchange(
+                "http://localhost:" + port + "/actuator/metrics/offers.validation.rejections", HttpMethod.GET, null,
+                new ParameterizedTypeReference<Map<String, Object>>() {});
+        assertThat(responseEntity.getStatusCode(), is(HttpStatus.OK));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> measurements =
+                (List<Map<String, Object>>) responseEntity.getBody().get("measurements");
+        return measurements.stream()
+                .filter(measurement -> "COUNT".equals(measurement.get("statistic")))
+                .mapToDouble(measurement -> ((Number) measurement.get("value")).doubleValue())
+                .findFirst()
+                .getAsDouble();
+    }
+
+    private ResponseEntity<String> getIfNoneMatch(URI uri, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+        return template.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+
+    private List<BatchItemResult> postBatch(String body, MediaType contentType) throws URISyntaxException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        return template.exchange(
+                UriComponentsBuilder.fromHttpUrl(base.toString()).pathSegment("batch").build().toUri(),
+                HttpMethod.POST,
+                new HttpEntity<>(body, headers),
+                new ParameterizedTypeReference<List<BatchItemResult>>() {}).getBody();
+    }
+
+    private static String batchItem(String currencyCode, String expiryDate) {
+        return "{\"iso4217CurrencyCode\":\"" + currencyCode + "\",\"offerPriceInPence\":1234,"
+                + "\"expiryDate\":\"" + expiryDate + "\",\"description\":\"IT Services\"}";
+    }
+
     private CreateOfferRequest createOfferRequest(LocalDate expiryDate) {
         return new CreateOfferRequest(
                 "EUR",
@@ -0,0 +1,168 @@
+package com.echolima.offers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+        classes = OffersApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+public class OffersHandlerTest {
+    @Autowired
+    private WebTestClient client;
+
+    @Autowired
+    private TimeService timeService;
+
+    @Autowired
+    private OffersRepository offersRepository;
+
+    @Autowired
+    private OfferChangeFeed changeFeed;
+
+    @Before
+    public void setUp() {
+        offersRepository.deleteAll();
+    }
+
+    @Test
+    public void shouldCreateGetAndCancelOffer() {
+        URI location = createOffer();
+
+        assertThat(getOffer(location).isCancelled(), is(false));
+        client.delete().uri(location).exchange().expectStatus().isNoContent();
+        assertThat(getOffer(location).isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldNotFindUnknownOffer() {
+        client.get().uri("/offers/unknown").exchange().expectStatus().isNotFound();
+        client.delete().uri("/offers/unknown").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    public void shouldBadRequestInvalidOffer() {
+        client.post().uri("/offers")
+                .syncBody(new CreateOfferRequest("NotACurrency", BigDecimal.ONE, timeService.now(), "Hot Dogs"))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void shouldListOffersAsNdjsonAndPages() {
+        createOffer();
+        createOffer();
+        createOffer();
+
+        List<Offer> streamed = client.get().uri("/offers")
+                .accept(OffersController.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Offer.class).getResponseBody().collectList().block();
+        assertThat(streamed.size(), is(3));
+
+        client.get().uri("/offers?limit=2").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches(HttpHeaders.LINK, ".*cursor=.*rel=\"next\"")
+                .expectBodyList(Offer.class).hasSize(2);
+        client.get().uri("/offers?currency=EUR&limit=1").exchange()
+                .expectBodyList(Offer.class).hasSize(1);
+    }
+
+    @Test
+    public void shouldNotModifyOfferUntilCancelled() {
+        URI location = createOffer();
+        String etag = client.get().uri(location).exchange()
+                .returnResult(Offer.class).getResponseHeaders().getETag();
+
+        client.get().uri(location).ifNoneMatch(etag).exchange().expectStatus().isNotModified();
+        client.delete().uri(location).exchange();
+        client.get().uri(location).ifNoneMatch(etag).exchange().expectStatus().isOk();
+    }
+
+    @Test
+    public void shouldCreateBatchOfOffers() {
+        String body = "{\"iso4217CurrencyCode\":\"EUR\",\"offerPriceInPence\":1,\"expiryDate\":\"2100-01-01\","
+                + "\"description\":\"one\"}\n"
+                + "{\"iso4217CurrencyCode\":\"NotACurrency\",\"offerPriceInPence\":1,\"expiryDate\":\"2100-01-01\","
+                + "\"description\":\"two\"}\n";
+
+        client.post().uri("/offers/batch")
+                .contentType(OffersController.APPLICATION_NDJSON)
+                .syncBody(body)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BatchItemResult.class).hasSize(2);
+
+        assertThat(offersRepository.getOffers().size(), is(1));
+    }
+
+    @Test
+    public void shouldAnswerWritesWithLatestSequence() {
+        long after = changeFeed.latestSequence();
+        URI location = client.post().uri("/offers")
+                .syncBody(new CreateOfferRequest("EUR", BigDecimal.ONE, timeService.now().plusDays(1), "Hot Dogs"))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(OffersController.LATEST_SEQUENCE, Long.toString(after + 1))
+                .returnResult(Void.class).getResponseHeaders().getLocation();
+
+        client.delete().uri(location).exchange()
+                .expectStatus().isNoContent()
+                .expectHeader().valueEquals(OffersController.LATEST_SEQUENCE, Long.toString(after + 2));
+        client.post().uri("/offers/batch")
+                .contentType(OffersController.APPLICATION_NDJSON)
+                .syncBody("{\"iso4217CurrencyCode\":\"EUR\",\"offerPriceInPence\":1,\"expiryDate\":\"2100-01-01\","
+                        + "\"description\":\"one\"}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(OffersController.LATEST_SEQUENCE, Long.toString(after + 3));
+    }
+
+    @Test
+    public void shouldReturnChangesAfterSequence() {
+        long after = changeFeed.latestSequence();
+        URI location = createOffer();
+        client.delete().uri(location).exchange().expectStatus().isNoContent();
+
+        client.get().uri("/offers/changes?after={after}&waitSeconds=1", after).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(OffersController.LATEST_SEQUENCE, Long.toString(after + 2))
+                .expectBody()
+                .jsonPath("$[0].type").isEqualTo("CREATED")
+                .jsonPath("$[1].type").isEqualTo("CANCELLED");
+        client.get().uri("/offers/changes?after={after}", after + 3).exchange()
+                .expectStatus().isEqualTo(HttpStatus.GONE);
+    }
+
+    private Offer getOffer(URI location) {
+        return client.get().uri(location).exchange()
+                .expectStatus().isOk()
+                .expectBody(Offer.class).returnResult().getResponseBody();
+    }
+
+    private URI createOffer() {
+        return client.post().uri("/offers")
+                .contentType(MediaType.APPLICATION_JSON)
+                .syncBody(new CreateOfferRequest("EUR", BigDecimal.valueOf(1234), timeService.now().plusDays(3), "IT"))
+                .exchange()
+                .expectStatus().isCreated()
+                .returnResult(Void.class).getResponseHeaders().getLocation();
+    }
+}
@@ -0,0 +1,195 @@
+package com.echolima.offers;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static com.echolima.offers.OffersRepositoryTest.offer;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class OffersJournalTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private OffersJournal journal;
+    private OffersRepository repository;
+
+    @Before
+    public void setup() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        journal = new OffersJournal(directory, OffersJournal.SyncMode.BATCH, 100);
+        repository = new OffersRepository(new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        journal.attach(repository);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void shouldReplayCreatedAndCancelledOffers() throws IOException {
+        repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        repository.createOffers(Arrays.asList(
+                offer("id2", LocalDate.now().plusWeeks(1)),
+                offer("id3", LocalDate.now().minusWeeks(1))));
+        repository.cancel("id2");
+
+        OffersRepository restored = reopen(OffersJournal.SyncMode.BATCH);
+
+        assertThat(restored.getOffers(), is(repository.getOffers()));
+        assertThat(restored.getOffer("id2").get().isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldReplaySnapshotAndTheSegmentsWrittenAfterIt() throws IOException {
+        repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        repository.createOffer(offer("id2", LocalDate.now().plusWeeks(1)));
+        journal.snapshot();
+        repository.cancel("id1");
+        repository.createOffer(offer("id3", LocalDate.now().plusWeeks(1)));
+
+        OffersRepository restored = reopen(OffersJournal.SyncMode.BATCH);
+
+        assertThat(restored.getOffers(), is(repository.getOffers()));
+        assertThat(restored.getOffer("id1").get().isCancelled(), is(true));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.getFileName().toString().startsWith("snapshot-")).count(), is(1L));
+        }
+    }
+
+    @Test
+    public void shouldKeepOfferWhoseCreationWasRecordedButNotStoredWhenSnapshotStarted() throws Exception {
+        CountDownLatch recorded = new CountDownLatch(1);
+        CountDownLatch stored = new CountDownLatch(1);
+        repository.addListener(new OfferEventListener() {
+            @Override
+            public void offersCreating(Collection<Offer> offers) {
+                recorded.countDown();
+                Uninterruptibles.awaitUninterruptibly(stored);
+            }
+
+            @Override
+            public void offerCreated(Offer offer) {
+            }
+
+            @Override
+            public void offerCancelled(Offer offer) {
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> creation = executor.submit(() -> repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1))));
+        recorded.await();
+        Future<?> snapshot = executor.submit(() -> {
+            journal.snapshot();
+            return null;
+        });
+        Thread.sleep(100);
+        stored.countDown();
+        creation.get();
+        snapshot.get();
+        executor.shutdown();
+
+        assertThat(reopen(OffersJournal.SyncMode.BATCH).getOffer("id1").isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldKeepArchivedOffersInSnapshot() throws IOException {
+        repository.setColdStore(new ColdOfferStore(temporaryFolder.newFile().toPath()));
+        repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        repository.createOffer(offer("id2", LocalDate.now().minusWeeks(1)));
+        repository.archiveOffers(LocalDate.now(), Long.MAX_VALUE);
+        journal.snapshot();
+
+        OffersRepository restored = reopen(OffersJournal.SyncMode.BATCH);
+
+        assertThat(restored.getOffers().size(), is(2));
+        assertThat(restored.getOffer("id2").get().isExpired(), is(true));
+    }
+
+    @Test
+    public void shouldLeaveArchivedOffersColdAndKeepWhenOffersWereCancelledOverRestart() throws IOException {
+        Path coldStorePath = temporaryFolder.newFolder().toPath().resolve("cold-offers.bin");
+        TimeService lastWeek = mock(TimeService.class);
+        given(lastWeek.now()).willReturn(LocalDate.now().minusWeeks(1));
+        journal.close();
+        journal = new OffersJournal(directory, OffersJournal.SyncMode.BATCH, 100);
+        repository = new OffersRepository(lastWeek, new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        ColdOfferStore coldStore = new ColdOfferStore(coldStorePath);
+        repository.setColdStore(coldStore);
+        journal.attach(repository);
+        repository.createOffers(Arrays.asList(
+                offer("id1", LocalDate.now().plusWeeks(1)),
+                offer("id2", LocalDate.now().plusWeeks(1)),
+                offer("id3", LocalDate.now().minusWeeks(2))));
+        repository.cancel("id1");
+        assertThat(repository.archiveOffers(LocalDate.now().minusDays(10), Long.MAX_VALUE), is(1));
+        journal.snapshot();
+        repository.cancel("id2");
+        coldStore.close();
+
+        journal.close();
+        journal = new OffersJournal(directory, OffersJournal.SyncMode.BATCH, 100);
+        OffersRepository restored = new OffersRepository(
+                new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        restored.setColdStore(new ColdOfferStore(coldStorePath));
+        journal.attach(restored);
+
+        assertThat(restored.getOffers().size(), is(2));
+        assertThat(restored.isArchived("id3"), is(true));
+        assertThat(restored.getOffer("id3").get().isExpired(), is(true));
+        assertThat(restored.archiveOffers(LocalDate.now().minusDays(5), Long.MAX_VALUE), is(2));
+    }
+
+    @Test
+    public void shouldFlushIntervalSyncedJournalOnClose() throws IOException {
+        journal.close();
+        journal = new OffersJournal(directory, OffersJournal.SyncMode.INTERVAL, 60_000);
+        repository = new OffersRepository(new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        journal.attach(repository);
+        repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+
+        assertThat(reopen(OffersJournal.SyncMode.INTERVAL).getOffer("id1").isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldIgnoreTornRecordAtTheEndOfTheJournal() throws IOException {
+        repository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        journal.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(path -> path.getFileName().toString().startsWith("journal-")).findFirst().get();
+            Files.write(segment, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        assertThat(reopen(OffersJournal.SyncMode.BATCH).getOffers().size(), is(1));
+    }
+
+    private OffersRepository reopen(OffersJournal.SyncMode syncMode) throws IOException {
+        journal.close();
+        journal = new OffersJournal(directory, syncMode, 100);
+        OffersRepository restored = new OffersRepository(new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        journal.attach(restored);
+        return restored;
+    }
+}
@@ -0,0 +1,206 @@
+package com.echolima.offers;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class OffersPartitioningTest {
+    private static final String SECRET = "secret";
+
+    private final TestRestTemplate template = new TestRestTemplate();
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void shouldServeEveryOfferFromEitherNode() throws Exception {
+        String nodeA = freeNode();
+        String nodeB = freeNode();
+        OffersRepository repositoryA = start(nodeA, nodeA, nodeB);
+        OffersRepository repositoryB = start(nodeB, nodeA, nodeB);
+
+        List<URI> locations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            locations.add(createOffer(nodeA));
+            locations.add(createOffer(nodeB));
+        }
+        List<String> ids = locations.stream().map(OffersPartitioningTest::idOf).sorted().collect(Collectors.toList());
+
+        assertThat(repositoryA.getOffers().size(), is(10));
+        assertThat(repositoryB.getOffers().size(), is(10));
+        assertThat(listIds(nodeA + "/offers"), is(ids));
+        assertThat(pageIds(nodeB + "/offers?limit=3"), is(ids));
+
+        String idOnB = idOf(locations.get(1));
+        assertThat(template.getForEntity(nodeA + "/offers/" + idOnB, Offer.class).getBody().getId(), is(idOnB));
+        assertThat(template.exchange(nodeA + "/offers/" + idOnB, HttpMethod.DELETE, null, Void.class).getStatusCode(),
+                is(HttpStatus.NO_CONTENT));
+        assertThat(repositoryB.getOffer(idOnB).get().isCancelled(), is(true));
+    }
+
+    @Test
+    public void shouldListEveryNodesOffersInIdOrderAPageAtATime() throws Exception {
+        String nodeA = freeNode();
+        String nodeB = freeNode();
+        OffersRepository repositoryA = start(nodeA, nodeA, nodeB);
+        OffersRepository repositoryB = start(nodeB, nodeA, nodeB);
+        List<CreateOfferRequest> requests = Collections.nCopies(1500,
+                new CreateOfferRequest("EUR", BigDecimal.valueOf(100), LocalDate.now().plusMonths(1), "Lunch"));
+        template.postForEntity(nodeA + "/offers/batch", requests, String.class);
+        template.postForEntity(nodeB + "/offers/batch", requests, String.class);
+        List<String> ids = Stream.concat(repositoryA.getOffers().stream(), repositoryB.getOffers().stream())
+                .map(Offer::getId)
+                .sorted()
+                .collect(Collectors.toList());
+
+        assertThat(ids.size(), is(3000));
+        assertThat(listIds(nodeA + "/offers"), is(ids));
+        assertThat(template.getForEntity(nodeA + "/offers?currency=EUR", String.class).getStatusCode(),
+                is(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void shouldCreateOnceForIdempotencyKeyRetriedOnAnotherNode() throws Exception {
+        String nodeA = freeNode();
+        String nodeB = freeNode();
+        OffersRepository repositoryA = start(nodeA, nodeA, nodeB);
+        OffersRepository repositoryB = start(nodeB, nodeA, nodeB);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(OffersController.IDEMPOTENCY_KEY, "retry-me");
+        HttpEntity<CreateOfferRequest> request = new HttpEntity<>(
+                new CreateOfferRequest("EUR", BigDecimal.valueOf(100), LocalDate.now().plusMonths(1), "Lunch"),
+                headers);
+
+        URI first = template.postForLocation(nodeA + "/offers", request);
+        URI retried = template.postForLocation(nodeB + "/offers", request);
+
+        assertThat(idOf(retried), is(idOf(first)));
+        assertThat(repositoryA.getOffers().size() + repositoryB.getOffers().size(), is(1));
+    }
+
+    @Test
+    public void shouldMoveOffersToJoiningNode() throws Exception {
+        String nodeA = freeNode();
+        String nodeB = freeNode();
+        OffersRepository repositoryA = start(nodeA, nodeA);
+        for (int i = 0; i < 50; i++) {
+            createOffer(nodeA);
+        }
+        List<String> ids = listIds(nodeA + "/offers");
+        OffersRepository repositoryB = start(nodeB, nodeA, nodeB);
+
+        ResponseEntity<Map<String, Integer>> moved = template.exchange(nodeA + "/offers/partition", HttpMethod.PUT,
+                new HttpEntity<>(Arrays.asList(nodeA, nodeB)), new ParameterizedTypeReference<Map<String, Integer>>() {});
+
+        assertThat(moved.getBody().get("moved"), greaterThan(0));
+        assertThat(repositoryB.getOffers().size(), is(moved.getBody().get("moved")));
+        assertThat(repositoryA.getOffers().size(), is(50 - moved.getBody().get("moved")));
+        assertThat(listIds(nodeB + "/offers"), is(ids));
+        assertThat(template.getForObject(nodeB + "/offers/partition", List.class), is(Arrays.asList(nodeA, nodeB)));
+    }
+
+    @Test
+    public void shouldRefuseRequestsOnlyNodesMayMakeWithoutTheSecret() throws Exception {
+        String nodeA = freeNode();
+        String nodeB = freeNode();
+        OffersRepository repositoryA = start(nodeA, nodeA);
+        Offer offer = Offer.builder()
+                .withId("planted")
+                .withCurrency(Currency.getInstance("EUR"))
+                .withPriceInPence(BigDecimal.valueOf(-1))
+                .withExpiryDate(LocalDate.now().plusMonths(1))
+                .withDescription("Lunch")
+                .build();
+        HttpHeaders guessed = new HttpHeaders();
+        guessed.set(OffersPartitioning.NODE_SECRET, "guess");
+
+        assertThat(template.exchange(nodeA + "/offers/migrations?local=true", HttpMethod.POST,
+                new HttpEntity<>(Collections.singletonList(offer), guessed), Void.class).getStatusCode(),
+                is(HttpStatus.FORBIDDEN));
+        assertThat(template.exchange(nodeA + "/offers/partition?local=true", HttpMethod.PUT,
+                new HttpEntity<>(Arrays.asList(nodeA, nodeB)), Void.class).getStatusCode(),
+                is(HttpStatus.FORBIDDEN));
+        assertThat(template.exchange(nodeA + "/offers/partition/rebalance?local=true", HttpMethod.POST,
+                null, Void.class).getStatusCode(), is(HttpStatus.FORBIDDEN));
+        assertThat(repositoryA.getOffer("planted").isPresent(), is(false));
+        assertThat(template.getForObject(nodeA + "/offers/partition", List.class),
+                is(Collections.singletonList(nodeA)));
+    }
+
+    private OffersRepository start(String self, String... nodes) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(OffersApplication.class).run(
+                "--server.port=" + URI.create(self).getPort(),
+                "--offers.partition.self=" + self,
+                "--offers.partition.nodes=" + String.join(",", nodes),
+                "--offers.partition.secret=" + SECRET);
+        contexts.add(context);
+        return context.getBean(OffersRepository.class);
+    }
+
+    private URI createOffer(String node) {
+        return template.postForLocation(node + "/offers",
+                new CreateOfferRequest("EUR", BigDecimal.valueOf(100), LocalDate.now().plusMonths(1), "Lunch"));
+    }
+
+    private List<String> listIds(String url) {
+        return ids(template.exchange(url, HttpMethod.GET, null, new ParameterizedTypeReference<List<Offer>>() {}));
+    }
+
+    private List<String> pageIds(String url) {
+        List<String> ids = new ArrayList<>();
+        URI nextPage = URI.create(url);
+        while (nextPage != null) {
+            ResponseEntity<List<Offer>> page = template.exchange(
+                    nextPage, HttpMethod.GET, null, new ParameterizedTypeReference<List<Offer>>() {});
+            ids.addAll(ids(page));
+            String link = page.getHeaders().getFirst(HttpHeaders.LINK);
+            nextPage = link == null ? null : URI.create(link.substring(1, link.indexOf('>')));
+        }
+        return ids;
+    }
+
+    private static List<String> ids(ResponseEntity<List<Offer>> response) {
+        return Lists.newArrayList(response.getBody()).stream().map(Offer::getId).collect(Collectors.toList());
+    }
+
+    private static String idOf(URI location) {
+        String path = location.getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String freeNode() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://localhost:" + socket.getLocalPort();
+        }
+    }
+}
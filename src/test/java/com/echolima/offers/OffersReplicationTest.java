@@ -0,0 +1,111 @@
+package com.echolima.offers;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OffersReplicationTest {
+    private final TestRestTemplate template = new TestRestTemplate();
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void shouldReadOwnWritesFromReplica() throws Exception {
+        String leader = freeNode();
+        String replica = freeNode();
+        start(leader);
+        createOffer(leader);
+        OffersRepository replicaRepository = start(replica, "--offers.replication.leader=" + leader);
+
+        ResponseEntity<Void> created = template.postForEntity(leader + "/offers", createOfferRequest(), Void.class);
+        String path = created.getHeaders().getLocation().getPath();
+        String id = path.substring(path.lastIndexOf('/') + 1);
+        ResponseEntity<Offer> read = template.exchange(replica + path, HttpMethod.GET,
+                minSequence(created.getHeaders().getFirst(OffersController.LATEST_SEQUENCE)), Offer.class);
+
+        assertThat(read.getStatusCode(), is(HttpStatus.OK));
+        assertThat(replicaRepository.getOffers().size(), is(2));
+
+        ResponseEntity<Void> cancelled = template.exchange(leader + path, HttpMethod.DELETE, null, Void.class);
+        ResponseEntity<Offer> readCancelled = template.exchange(replica + path, HttpMethod.GET,
+                minSequence(cancelled.getHeaders().getFirst(OffersController.LATEST_SEQUENCE)), Offer.class);
+
+        assertThat(readCancelled.getBody().isCancelled(), is(true));
+        assertThat(replicaRepository.getOffer(id).get().isCancelled(), is(true));
+        Map<?, ?> status = template.getForObject(replica + "/offers/replication", Map.class);
+        assertThat(status.get("appliedSequence"), is(status.get("leaderSequence")));
+    }
+
+    @Test
+    public void shouldRedirectWritesToLeaderUntilPromoted() throws Exception {
+        String leader = freeNode();
+        String replica = freeNode();
+        start(leader);
+        start(replica, "--offers.replication.leader=" + leader);
+
+        ResponseEntity<Void> redirected = template.exchange(
+                replica + "/offers/some-id", HttpMethod.DELETE, null, Void.class);
+
+        assertThat(redirected.getStatusCode(), is(HttpStatus.TEMPORARY_REDIRECT));
+        assertThat(redirected.getHeaders().getLocation(), is(URI.create(leader + "/offers/some-id")));
+
+        template.postForEntity(replica + "/offers/replication/promote", null, Void.class);
+
+        assertThat(template.postForEntity(replica + "/offers", createOfferRequest(), Void.class).getStatusCode(),
+                is(HttpStatus.CREATED));
+    }
+
+    private OffersRepository start(String node, String... args) {
+        List<String> allArgs = new ArrayList<>();
+        allArgs.add("--server.port=" + URI.create(node).getPort());
+        allArgs.addAll(Arrays.asList(args));
+        ConfigurableApplicationContext context =
+                new SpringApplicationBuilder(OffersApplication.class).run(allArgs.toArray(new String[0]));
+        contexts.add(context);
+        return context.getBean(OffersRepository.class);
+    }
+
+    private URI createOffer(String node) {
+        return template.postForLocation(node + "/offers", createOfferRequest());
+    }
+
+    private static CreateOfferRequest createOfferRequest() {
+        return new CreateOfferRequest("EUR", BigDecimal.valueOf(100), LocalDate.now().plusMonths(1), "Lunch");
+    }
+
+    private static HttpEntity<Void> minSequence(String sequence) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ReplicaInterceptor.MIN_SEQUENCE, sequence);
+        return new HttpEntity<>(headers);
+    }
+
+    private static String freeNode() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://localhost:" + socket.getLocalPort();
+        }
+    }
+}
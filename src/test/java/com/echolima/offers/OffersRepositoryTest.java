@@ -1,36 +1,54 @@
 package com.echolima.offers;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Streams;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Collections;
 import java.util.Currency;
-import java.util.Map;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class OffersRepositoryTest {
-    @InjectMocks
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
     private OffersRepository offersRepository;
-    @Mock
-    private Map<String, Offer> idToOffer;
+    @Spy
+    private ConcurrentNavigableMap<OfferKey, Offer> idToOffer = new ConcurrentSkipListMap<>();
     @Mock
     private TimeService timeService;
 
     @Before
     public void setup() {
         given(timeService.now()).willReturn(LocalDate.now());
+        offersRepository = new OffersRepository(timeService, new SkipListOfferStore(idToOffer));
     }
 
     @Test
@@ -49,7 +67,17 @@ public class OffersRepositoryTest {
 
         offersRepository.createOffer(offerToSave);
 
-        verify(idToOffer).put("id", offerToSave);
+        verify(idToOffer).put(OfferKey.of("id"), offerToSave);
+    }
+
+    @Test
+    public void shouldSaveBatchOfOffers() {
+        offersRepository.createOffers(Lists.newArrayList(
+                offer("id1", LocalDate.now().plusWeeks(1)),
+                offer("id2", LocalDate.now().minusWeeks(1))));
+
+        assertThat(idToOffer.get(OfferKey.of("id1")).isExpired(), is(false));
+        assertThat(idToOffer.get(OfferKey.of("id2")).isExpired(), is(true));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -69,7 +97,7 @@ public class OffersRepositoryTest {
                 .withExpired(false)
                 .build();
 
-        given(idToOffer.get("id")).willReturn(offerToSave);
+        idToOffer.put(OfferKey.of("id"), offerToSave);
 
         assertThat(offersRepository.getOffer("id").get(), is(offerToSave));
     }
@@ -91,31 +119,246 @@ public class OffersRepositoryTest {
 
     @Test
     public void shouldExpireOffer() {
-        given(idToOffer.get("id")).willReturn(offer("id", LocalDate.now().minusDays(2)));
+        idToOffer.put(OfferKey.of("id"), offer("id", LocalDate.now().minusDays(2)));
 
         assertThat(offersRepository.getOffer("id").get().isExpired(), is(true));
     }
 
     @Test
     public void shouldExpireOffers() {
-        given(idToOffer.values()).willReturn(Lists.newArrayList(
+        Lists.newArrayList(
                 offer("id1", LocalDate.now().plusWeeks(1)),
                 offer("id2", LocalDate.now().minusDays(1)),
                 offer("id3", LocalDate.now().plusWeeks(1)),
                 offer("id4", LocalDate.now().plusWeeks(3)),
                 offer("id5", LocalDate.now().plusWeeks(4)),
-                offer("id6", LocalDate.now().minusMonths(4))));
+                offer("id6", LocalDate.now().minusMonths(4)))
+                .forEach(offer -> idToOffer.put(OfferKey.of(offer.getId()), offer));
 
         assertThat(offersRepository.getOffers().stream().filter(Offer::isExpired).count(), is(2L));
     }
 
+    @Test
+    public void shouldPageThroughOffersInIdOrder() {
+        IntStream.range(0, 5).forEach(i ->
+                idToOffer.put(OfferKey.of("id" + i), offer("id" + i, LocalDate.now().plusWeeks(1))));
+
+        OfferPage firstPage = offersRepository.getOffers(null, 2).get();
+        OfferPage secondPage = offersRepository.getOffers(firstPage.getNextCursor().get(), 2).get();
+        OfferPage lastPage = offersRepository.getOffers(secondPage.getNextCursor().get(), 2).get();
+
+        assertThat(ids(firstPage), is(Lists.newArrayList("id0", "id1")));
+        assertThat(ids(secondPage), is(Lists.newArrayList("id2", "id3")));
+        assertThat(ids(lastPage), is(Lists.newArrayList("id4")));
+        assertThat(lastPage.getNextCursor().isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldNotShiftPagesWhenOffersAreCreatedBeforeTheCursor() {
+        IntStream.range(1, 5).forEach(i ->
+                idToOffer.put(OfferKey.of("id" + i), offer("id" + i, LocalDate.now().plusWeeks(1))));
+
+        OfferPage firstPage = offersRepository.getOffers(null, 2).get();
+        idToOffer.put(OfferKey.of("id0"), offer("id0", LocalDate.now().plusWeeks(1)));
+
+        assertThat(ids(offersRepository.getOffers(firstPage.getNextCursor().get(), 2).get()),
+                is(Lists.newArrayList("id3", "id4")));
+    }
+
+    @Test
+    public void shouldNotPageFromCursorCompactStorageNoLongerHolds() {
+        OffersRepository compact = new OffersRepository(timeService, new CompactOfferStore());
+        List<String> ids = IntStream.range(0, 3)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+        ids.forEach(id -> compact.createOffer(offer(id, LocalDate.now().plusWeeks(1))));
+        String cursor = compact.getOffers(null, 1).get().getNextCursor().get();
+
+        compact.removeOffers(Collections.singletonList(cursor));
+
+        assertThat(compact.getOffers(cursor, 1).isPresent(), is(false));
+        assertThat(ids(compact.getOffers(ids.get(1), 1).get()), is(Collections.singletonList(ids.get(2))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowExceptionForNonPositiveLimitWhenPaging() {
+        offersRepository.getOffers(null, 0);
+    }
+
+    @Test
+    public void shouldFindOffersByCurrencyAndPriceRange() {
+        offersRepository.createOffer(offer("id1", "SEK", 100, LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("id2", "SEK", 200, LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("id3", "SEK", 300, LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("id4", "EUR", 200, LocalDate.now().plusWeeks(1)));
+
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder()
+                .withCurrency(Currency.getInstance("SEK"))
+                .withMinPriceInPence(BigDecimal.valueOf(150))
+                .withMaxPriceInPence(BigDecimal.valueOf(300))
+                .build())), is(Lists.newArrayList("id2", "id3")));
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder()
+                .withMaxPriceInPence(BigDecimal.valueOf(200))
+                .build())).size(), is(3));
+    }
+
+    @Test
+    public void shouldFindOffersByStatus() {
+        offersRepository.createOffer(offer("active", LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("cancelled", LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("expired", LocalDate.now().minusWeeks(1)));
+        offersRepository.cancel("cancelled");
+
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder().withStatus(OfferStatus.ACTIVE).build())),
+                is(Lists.newArrayList("active")));
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder().withStatus(OfferStatus.CANCELLED).build())),
+                is(Lists.newArrayList("cancelled")));
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder().withStatus(OfferStatus.EXPIRED).build())),
+                is(Lists.newArrayList("expired")));
+    }
+
+    @Test
+    public void shouldFindOffersBySweptStatusOnceTheirExpiryDateHasPassed() {
+        offersRepository.createOffer(offer("id", LocalDate.now()));
+        given(timeService.now()).willReturn(LocalDate.now().plusDays(1));
+
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder().withStatus(OfferStatus.EXPIRED).build())),
+                is(Lists.newArrayList("id")));
+    }
+
+    @Test
+    public void shouldFindOffersExpiringBeforeDate() {
+        offersRepository.createOffer(offer("id1", LocalDate.now().plusDays(1)));
+        offersRepository.createOffer(offer("id2", LocalDate.now().plusDays(2)));
+        offersRepository.createOffer(offer("id3", LocalDate.now().plusDays(3)));
+
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder()
+                .withExpiringBefore(LocalDate.now().plusDays(3))
+                .build())), is(Lists.newArrayList("id1", "id2")));
+    }
+
+    @Test
+    public void shouldStoreOfferWhichHasAlreadyPassedAsExpired() {
+        offersRepository.createOffer(offer("id", LocalDate.now().minusDays(2)));
+
+        assertThat(idToOffer.get(OfferKey.of("id")).isExpired(), is(true));
+    }
+
+    @Test
+    public void shouldExpireOffersOnceTheirExpiryDateHasPassed() {
+        offersRepository.createOffer(offer("id1", LocalDate.now()));
+        offersRepository.createOffer(offer("id2", LocalDate.now().plusDays(1)));
+        given(timeService.now()).willReturn(LocalDate.now().plusDays(1));
+
+        offersRepository.expireOffers();
+
+        assertThat(idToOffer.get(OfferKey.of("id1")).isExpired(), is(true));
+        assertThat(idToOffer.get(OfferKey.of("id2")).isExpired(), is(false));
+    }
+
     @Test
     public void shouldCancelOffer() {
         Offer cancelMe = offer("cancelMe", LocalDate.now().plusWeeks(4));
-        given(idToOffer.get("cancelMe")).willReturn(cancelMe);
+        idToOffer.put(OfferKey.of("cancelMe"), cancelMe);
 
         offersRepository.cancel("cancelMe");
-        verify(idToOffer).put("cancelMe", Offer.builder(cancelMe).withCancelled(true).build());
+        assertThat(idToOffer.get(OfferKey.of("cancelMe")), is(Offer.builder(cancelMe).withCancelled(true).build()));
+    }
+
+    @Test
+    public void shouldNotLoseCancelsUnderConcurrentWrites() throws InterruptedException {
+        OffersRepository repository = new OffersRepository(new TimeService(), new SkipListOfferStore(new ConcurrentSkipListMap<>()));
+        List<String> ids = IntStream.range(0, 10_000).mapToObj(i -> "id" + i).collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ids.forEach(id -> executor.execute(() -> {
+            awaitQuietly(start);
+            repository.createOffer(offer(id, LocalDate.now().plusWeeks(1)));
+            repository.cancel(id);
+        }));
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS), is(true));
+
+        assertThat(repository.getOffers().stream().filter(Offer::isCancelled).count(), is((long) ids.size()));
+    }
+
+    @Test
+    public void shouldCancelOffersByIdOnceAndReportWhetherOfferExists() {
+        offersRepository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("id2", LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("expired", LocalDate.now().minusWeeks(1)));
+
+        assertThat(offersRepository.cancelOffers(Lists.newArrayList("id1", "id2", "expired", "unknown")), is(2));
+        assertThat(offersRepository.cancelOffers(Lists.newArrayList("id1", "id2")), is(0));
+        assertThat(offersRepository.cancel("expired"), is(true));
+        assertThat(offersRepository.cancel("unknown"), is(false));
+        assertThat(offersRepository.countOffers(OfferStatus.CANCELLED), is(2));
+    }
+
+    @Test
+    public void shouldCancelOffersMatchingQuery() {
+        offersRepository.createOffer(offer("id1", "SEK", 100, LocalDate.now().plusDays(1)));
+        offersRepository.createOffer(offer("id2", "SEK", 100, LocalDate.now().plusDays(2)));
+        offersRepository.createOffer(offer("id3", "SEK", 100, LocalDate.now().plusDays(3)));
+        offersRepository.createOffer(offer("id4", "EUR", 100, LocalDate.now().plusDays(2)));
+
+        int cancelled = offersRepository.cancelOffers(OfferQuery.builder()
+                .withCurrency(Currency.getInstance("SEK"))
+                .withDescriptionContaining("an OFFER")
+                .withExpiringFrom(LocalDate.now().plusDays(2))
+                .withExpiringBefore(LocalDate.now().plusDays(4))
+                .build());
+
+        assertThat(cancelled, is(2));
+        assertThat(ids(offersRepository.findOffers(OfferQuery.builder().withStatus(OfferStatus.CANCELLED).build())),
+                is(Lists.newArrayList("id2", "id3")));
+        assertThat(offersRepository.cancelOffers(OfferQuery.builder().withDescriptionContaining("offer").build()),
+                is(2));
+    }
+
+    @Test
+    public void shouldApplyChangesFromAnotherRepositoryMoreThanOnce() {
+        OfferChangeFeed changeFeed = new OfferChangeFeed(100);
+        offersRepository.addListener(changeFeed);
+        offersRepository.createOffers(Lists.newArrayList(
+                offer("id1", LocalDate.now().plusWeeks(1)),
+                offer("id2", LocalDate.now().plusWeeks(1)),
+                offer("id3", LocalDate.now().plusWeeks(1))));
+        offersRepository.cancel("id1");
+        offersRepository.removeOffers(Lists.newArrayList("id3"));
+        List<OfferChange> changes = changeFeed.changesAfter(0, 100).get();
+
+        OffersRepository replica = new OffersRepository(timeService, new CopyOnWriteOfferStore());
+        replica.applyChanges(changes);
+        replica.applyChanges(changes);
+
+        assertThat(replica.getOffers(), is(offersRepository.getOffers()));
+        assertThat(replica.countOffers(OfferStatus.CANCELLED), is(1));
+        assertThat(replica.countOffers(OfferStatus.ACTIVE), is(1));
+        assertThat(ids(replica.searchOffers("offer", 10).stream()), is(Lists.newArrayList("id2")));
+    }
+
+    @Test
+    public void shouldArchiveOffersInactiveForRetentionThenLongestInactiveOverCap() throws IOException {
+        offersRepository.setColdStore(new ColdOfferStore(temporaryFolder.newFile().toPath()));
+        offersRepository.createOffers(Lists.newArrayList(
+                offer("id1", LocalDate.now().plusWeeks(1)),
+                offer("id2", LocalDate.now().minusDays(10)),
+                offer("id3", LocalDate.now().plusWeeks(1)),
+                offer("id4", LocalDate.now().minusDays(2))));
+        offersRepository.cancel("id3");
+
+        assertThat(offersRepository.archiveOffers(LocalDate.now().minusDays(5), 100), is(1));
+        assertThat(ids(offersRepository.getOffers().stream()), is(Lists.newArrayList("id1", "id3", "id4")));
+        assertThat(offersRepository.getOffer("id2").get().isExpired(), is(true));
+        assertThat(offersRepository.cancel("id2"), is(true));
+
+        assertThat(offersRepository.archiveOffers(LocalDate.now().minusDays(5), 2), is(1));
+        assertThat(ids(offersRepository.getOffers().stream()), is(Lists.newArrayList("id1", "id3")));
+        assertThat(ids(Streams.stream(offersRepository.iterateArchivedOffers())), is(Lists.newArrayList("id2", "id4")));
+        assertThat(offersRepository.countOffers(OfferStatus.EXPIRED), is(0));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -131,19 +374,104 @@ public class OffersRepositoryTest {
     @Test
     public void shouldNotCancelExpiredOffer() {
         Offer expiredOffer = offer("id", LocalDate.now().minusMonths(2));
-        given(idToOffer.get("id")).willReturn(expiredOffer);
+        idToOffer.put(OfferKey.of("id"), expiredOffer);
 
         offersRepository.cancel("id");
 
-        verify(idToOffer, never()).put("id", Offer.builder(expiredOffer).withCancelled(true).build());
+        assertThat(idToOffer.get(OfferKey.of("id")).isCancelled(), is(false));
+    }
+
+    @Test
+    public void shouldKeepStatisticsAsOffersAreCreatedCancelledExpiredAndRemoved() {
+        offersRepository.createOffer(offer("id1", "GBP", 100, LocalDate.now()));
+        offersRepository.createOffer(offer("id2", "GBP", 201, LocalDate.now().plusDays(1)));
+        offersRepository.createOffer(offer("id3", "EUR", 50, LocalDate.now().plusDays(1)));
+        offersRepository.cancel("id3");
+        given(timeService.now()).willReturn(LocalDate.now().plusDays(1));
+        offersRepository.expireOffers();
+
+        List<OfferTotals> totals = offersRepository.getStatistics();
+
+        assertThat(totals.size(), is(3));
+        assertTotals(totals.get(0), "EUR", OfferStatus.CANCELLED, 1, "50");
+        assertTotals(totals.get(1), "GBP", OfferStatus.ACTIVE, 1, "201");
+        assertTotals(totals.get(2), "GBP", OfferStatus.EXPIRED, 1, "100");
+
+        offersRepository.createOffer(offer("id4", "GBP", 100, LocalDate.now().plusDays(2)));
+        offersRepository.removeOffers(Lists.newArrayList("id1", "id3"));
+
+        totals = offersRepository.getStatistics();
+        assertThat(totals.size(), is(1));
+        assertTotals(totals.get(0), "GBP", OfferStatus.ACTIVE, 2, "301");
+        assertThat(totals.get(0).getAveragePriceInPence(), is(new BigDecimal("150.5000")));
+    }
+
+    @Test
+    public void shouldSumPricesTooLargeForLongExactly() {
+        offersRepository.createOffer(offer("id1", "GBP", Long.MAX_VALUE, LocalDate.now().plusDays(1)));
+        offersRepository.createOffer(offer("id2", "GBP", Long.MAX_VALUE, LocalDate.now().plusDays(1)));
+        offersRepository.createOffer(offer("id3", "GBP", 1, LocalDate.now().plusDays(1)));
+
+        assertTotals(offersRepository.getStatistics().get(0), "GBP", OfferStatus.ACTIVE, 3, "18446744073709551615");
+
+        offersRepository.removeOffers(Lists.newArrayList("id1", "id3"));
+
+        assertTotals(offersRepository.getStatistics().get(0), "GBP", OfferStatus.ACTIVE, 1, "9223372036854775807");
+    }
+
+    @Test
+    public void shouldRecordOperationsExpiredCopiesAndSizes() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        OffersMetrics metrics = new OffersMetrics(meterRegistry);
+        offersRepository = new OffersRepository(timeService, new SkipListOfferStore(idToOffer), metrics);
+        metrics.bind(offersRepository);
+
+        offersRepository.createOffer(offer("id1", LocalDate.now().plusWeeks(1)));
+        offersRepository.createOffer(offer("id2", LocalDate.now().minusWeeks(1)));
+        offersRepository.getOffer("id1");
+        offersRepository.cancel("id1");
+
+        assertThat(meterRegistry.get("offers.repository").tag("operation", "create").timer().count(), is(2L));
+        assertThat(meterRegistry.get("offers.repository").tag("operation", "get").timer().count(), is(1L));
+        assertThat(meterRegistry.get("offers.expired.copies").counter().count(), is(1.0));
+        assertThat(meterRegistry.get("offers.size").tag("status", "cancelled").gauge().value(), is(1.0));
+        assertThat(meterRegistry.get("offers.size").tag("status", "expired").gauge().value(), is(1.0));
+    }
+
+    private static void assertTotals(
+            OfferTotals totals, String currencyCode, OfferStatus status, long count, String totalPriceInPence) {
+        assertThat(totals.getCurrency(), is(Currency.getInstance(currencyCode)));
+        assertThat(totals.getStatus(), is(status));
+        assertThat(totals.getCount(), is(count));
+        assertThat(totals.getTotalPriceInPence(), is(new BigDecimal(totalPriceInPence)));
+    }
+
+    private static List<String> ids(OfferPage page) {
+        return ids(page.getOffers().stream());
+    }
+
+    private static List<String> ids(Stream<Offer> offers) {
+        return offers.map(Offer::getId).sorted().collect(Collectors.toList());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public static Offer offer(String id, LocalDate expiryDate) {
+        return offer(id, "SEK", 123456, expiryDate);
+    }
+
+    public static Offer offer(String id, String currencyCode, long priceInPence, LocalDate expiryDate) {
         return Offer.builder()
                 .withDescription("An Offer")
-                .withPriceInPence(BigDecimal.valueOf(123456))
+                .withPriceInPence(BigDecimal.valueOf(priceInPence))
                 .withExpiryDate(expiryDate)
-                .withCurrency(Currency.getInstance("SEK"))
+                .withCurrency(Currency.getInstance(currencyCode))
                 .withId(id)
                 .withCancelled(false)
                 .withExpired(false)
@@ -0,0 +1,59 @@
+package com.echolima.offers;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TimeOrderedOfferIdGeneratorTest {
+    @Test
+    public void shouldGenerateCanonicalVersionSevenUuids() {
+        String id = new TimeOrderedOfferIdGenerator(3).nextId();
+
+        assertThat(UUID.fromString(id).toString(), is(id));
+        assertThat(UUID.fromString(id).version(), is(7));
+        assertThat(UUID.fromString(id).variant(), is(2));
+    }
+
+    @Test
+    public void shouldNotRepeatIdsAcrossThreadsOrNodes() throws InterruptedException {
+        List<TimeOrderedOfferIdGenerator> generators = IntStream.range(0, 2)
+                .mapToObj(TimeOrderedOfferIdGenerator::new)
+                .collect(Collectors.toList());
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            executor.execute(() -> generators.forEach(generator -> IntStream.range(0, 10000)
+                    .forEach(i -> ids.add(generator.nextId()))));
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(ids.size(), is(8 * 2 * 10000));
+    }
+
+    @Test
+    public void shouldOrderIdsByCreationTime() throws InterruptedException {
+        TimeOrderedOfferIdGenerator generator = new TimeOrderedOfferIdGenerator(0);
+        String first = generator.nextId();
+        Thread.sleep(2);
+        String second = generator.nextId();
+
+        assertThat(first.compareTo(second) < 0, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNodeOutOfRange() {
+        new TimeOrderedOfferIdGenerator(1 << 16);
+    }
+}